@@ -0,0 +1,93 @@
+package com.bookshop.concurrency;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// deposits and blocking withdrawals of one unit on the monitor based SyncAccount, InventoryCounter and
+// StripedInventoryCounter. The balance starts high enough that a withdrawal never has to wait:
+//  - balanced: 2 threads deposit, 2 withdraw
+//  - depositHeavy: 3 threads deposit, 1 withdraws, e.g. restocking while few orders come in
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryCounterBenchmark {
+
+    private static final int INITIAL_BALANCE = 1_000_000_000;
+
+    @Param({"SyncAccount", "InventoryCounter", "StripedInventoryCounter"})
+    private String implementation;
+
+    private SyncAccount account;
+    private InventoryCounter counter;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        account = null;
+        counter = null;
+        switch (implementation) {
+            case "SyncAccount" -> account = new SyncAccount(INITIAL_BALANCE);
+            case "InventoryCounter" -> counter = new InventoryCounter(INITIAL_BALANCE);
+            default -> counter = new StripedInventoryCounter(INITIAL_BALANCE);
+        }
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(2)
+    public void balancedDeposit() {
+        deposit();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(2)
+    public boolean balancedWithdraw() throws InterruptedException {
+        return withdraw();
+    }
+
+    @Benchmark
+    @Group("depositHeavy")
+    @GroupThreads(3)
+    public void depositHeavyDeposit() {
+        deposit();
+    }
+
+    @Benchmark
+    @Group("depositHeavy")
+    @GroupThreads(1)
+    public boolean depositHeavyWithdraw() throws InterruptedException {
+        return withdraw();
+    }
+
+    private void deposit() {
+        if (account != null) {
+            account.deposit(1);
+        } else {
+            counter.deposit(1);
+        }
+    }
+
+    private boolean withdraw() throws InterruptedException {
+        if (account != null) {
+            account.withdrowWhenEnoughMoney(1);
+            return true;
+        }
+        return counter.withdraw(1, 1, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,68 @@
+package com.bookshop.concurrency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// uncontended and contended lock/unlock of the naive MyLock against ReentrantLock
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockBenchmark {
+
+    @Param({"MyLock", "ReentrantLock"})
+    private String implementation;
+
+    private final MyLock myLock = new MyLock();
+    private final ReentrantLock reentrantLock = new ReentrantLock();
+    private boolean useMyLock;
+    private long counter;
+
+    @Setup
+    public void setUp() {
+        useMyLock = "MyLock".equals(implementation);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long uncontended() throws InterruptedException {
+        return increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long contended() throws InterruptedException {
+        return increment();
+    }
+
+    private long increment() throws InterruptedException {
+        if (useMyLock) {
+            myLock.lock();
+            try {
+                return ++counter;
+            } finally {
+                myLock.unlock();
+            }
+        }
+        reentrantLock.lock();
+        try {
+            return ++counter;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+}
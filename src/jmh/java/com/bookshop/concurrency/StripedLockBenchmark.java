@@ -0,0 +1,83 @@
+package com.bookshop.concurrency;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// stress check more than a benchmark: 8 threads update plain (non atomic) per-book counters under the stripes,
+// a lost update would mean two threads were inside the same stripe and fails the iteration.
+// the shared update counter is itself a contention point, so the scores don't compare stripe counts fairly
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class StripedLockBenchmark {
+
+    private static final int BOOKS = 16;
+
+    // 1 stripe serializes everything, 64 stripes is the default configuration
+    @Param({"1", "64"})
+    private int stripes;
+
+    private StripedLock locks;
+    private final long[] stock = new long[BOOKS];
+    private final AtomicLong updates = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locks = new StripedLock(stripes);
+    }
+
+    @Benchmark
+    public long singleBook() {
+        int book = ThreadLocalRandom.current().nextInt(BOOKS);
+        locks.get(book).lock();
+        try {
+            updates.incrementAndGet();
+            return ++stock[book];
+        } finally {
+            locks.get(book).unlock();
+        }
+    }
+
+    // two books in random order: without the sorted acquisition this would deadlock
+    @Benchmark
+    public long basket() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(BOOKS);
+        int second = (first + 1 + random.nextInt(BOOKS - 1)) % BOOKS;
+        try (StripedLock.Locked ignored = locks.lockAll(List.of((long) first, (long) second))) {
+            updates.addAndGet(2);
+            return ++stock[first] + ++stock[second];
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkNoLostUpdates() {
+        long total = 0;
+        for (long count : stock) {
+            total += count;
+        }
+        if (total != updates.get()) {
+            throw new IllegalStateException("Lost updates: " + (updates.get() - total));
+        }
+    }
+}
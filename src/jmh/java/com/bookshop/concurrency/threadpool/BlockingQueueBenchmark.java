@@ -0,0 +1,119 @@
+package com.bookshop.concurrency.threadpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// producers -> consumer hand-off through MyBlockingQueue, ArrayBlockingQueue and RingBufferBlockingQueue with
+// each wait strategy. The producers are background threads putting elements as fast as they can,
+// the benchmark thread takes them, so the score is the number of elements handed over.
+// More consumers: run with -t <threads>
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockingQueueBenchmark {
+
+    private static final int CAPACITY = 128;
+    private static final Object ELEMENT = new Object();
+
+    @Param({"MyBlockingQueue", "ArrayBlockingQueue", "RingBufferSpin", "RingBufferYield", "RingBufferPark"})
+    private String implementation;
+
+    @Param({"1", "4", "16"})
+    private int producers;
+
+    private Queue queue;
+    private final List<Thread> producerThreads = new ArrayList<>();
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        queue = switch (implementation) {
+            case "MyBlockingQueue" -> myBlockingQueue();
+            case "ArrayBlockingQueue" -> blockingQueue(new ArrayBlockingQueue<>(CAPACITY));
+            case "RingBufferSpin" -> blockingQueue(new RingBufferBlockingQueue<>(CAPACITY, RingBufferBlockingQueue.WaitStrategy.SPIN));
+            case "RingBufferYield" -> blockingQueue(new RingBufferBlockingQueue<>(CAPACITY, RingBufferBlockingQueue.WaitStrategy.YIELD));
+            default -> blockingQueue(new RingBufferBlockingQueue<>(CAPACITY, RingBufferBlockingQueue.WaitStrategy.PARK));
+        };
+        running = true;
+        for (int i = 0; i < producers; i++) {
+            Thread producer = new Thread(() -> {
+                try {
+                    while (running) {
+                        queue.put(ELEMENT);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "queue-producer-" + i);
+            producer.setDaemon(true);
+            producer.start();
+            producerThreads.add(producer);
+        }
+    }
+
+    // producers blocked on a full queue are interrupted, every put is interruptible
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        for (Thread producer : producerThreads) {
+            producer.interrupt();
+            producer.join();
+        }
+        producerThreads.clear();
+    }
+
+    @Benchmark
+    public Object handOff() throws InterruptedException {
+        return queue.take();
+    }
+
+    private static Queue myBlockingQueue() {
+        MyBlockingQueue queue = new MyBlockingQueue(CAPACITY);
+        return new Queue() {
+            public void put(Object element) throws InterruptedException {
+                queue.enqueue(element);
+            }
+
+            public Object take() throws InterruptedException {
+                return queue.dequeue();
+            }
+        };
+    }
+
+    private static Queue blockingQueue(BlockingQueue<Object> queue) {
+        return new Queue() {
+            public void put(Object element) throws InterruptedException {
+                queue.put(element);
+            }
+
+            public Object take() throws InterruptedException {
+                return queue.take();
+            }
+        };
+    }
+
+    private interface Queue {
+        void put(Object element) throws InterruptedException;
+
+        Object take() throws InterruptedException;
+    }
+}
@@ -0,0 +1,92 @@
+package com.bookshop.concurrency.threadpool;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// runs a batch of small tasks on MyThreadPool, a ThreadPoolExecutor and a ForkJoinPool of the same size:
+//  - external: every task is submitted by the benchmark thread
+//  - nested: the benchmark thread submits a few tasks, each of them submits the small tasks from a pool thread,
+//    which the work-stealing pools keep on the submitting worker's own deque
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadPoolBenchmark {
+
+    private static final int THREADS = 4;
+    private static final int TASKS = 1000;
+    private static final int PARENT_TASKS = 10;
+    // the whole batch fits, the benchmark measures the hand-off and not the rejection policies
+    private static final int QUEUE_CAPACITY = 2 * TASKS;
+
+    @Param({"MyThreadPool", "ThreadPoolExecutor", "ForkJoinPool"})
+    private String implementation;
+
+    @Param({"external", "nested"})
+    private String submission;
+
+    @Param({"50"})
+    private int taskTokens;
+
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = switch (implementation) {
+            case "MyThreadPool" -> new MyThreadPool(THREADS, QUEUE_CAPACITY);
+            case "ThreadPoolExecutor" -> new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+            default -> new ForkJoinPool(THREADS);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void executeBatch() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(TASKS);
+        Runnable task = () -> {
+            Blackhole.consumeCPU(taskTokens);
+            done.countDown();
+        };
+        if ("external".equals(submission)) {
+            for (int i = 0; i < TASKS; i++) {
+                executor.execute(task);
+            }
+        } else {
+            for (int i = 0; i < PARENT_TASKS; i++) {
+                executor.execute(() -> {
+                    for (int j = 0; j < TASKS / PARENT_TASKS; j++) {
+                        executor.execute(task);
+                    }
+                });
+            }
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,52 @@
+package com.bookshop.mapper;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.bookshop.dto.OrderDto;
+import com.bookshop.model.Item;
+import com.bookshop.model.Order;
+import com.bookshop.model.User;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderDtoMapperBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int itemCount;
+
+    private final OrderDtoMapper mapper = new OrderDtoMapper();
+    private Order order;
+
+    @Setup
+    public void setUp() {
+        User user = new User();
+        user.setName("user1");
+        List<Item> items = new ArrayList<>(itemCount);
+        order = Order.builder().id(1L).user(user).orderDate(LocalDateTime.now()).items(items).build();
+        for (int i = 0; i < itemCount; i++) {
+            items.add(new Item((long) i + 1, (long) i + 1, 1, order));
+        }
+    }
+
+    @Benchmark
+    public OrderDto mapOrderDto() {
+        return mapper.mapOrderDto(order);
+    }
+}
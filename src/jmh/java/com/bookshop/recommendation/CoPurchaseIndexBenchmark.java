@@ -0,0 +1,130 @@
+package com.bookshop.recommendation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+// co-purchase counts of 1M synthetic orders of 1 to 5 books out of 10k, a few bestsellers are in most orders:
+//  - LongIntHashMap: CoPurchaseIndex, a primitive long -> int map per book
+//  - HashMap: a boxed Map<Long, Map<Long, Integer>>, a node, a Long and an Integer per pair of books
+// one build per iteration, the heap still used by the built index after a full GC is the retainedBytes counter,
+// footprintBytes is the estimate CoPurchaseIndex logs at startup. JMH sums the counters over the iterations, a single
+// measured build of the seeded orders keeps them per index. Run with -prof gc for the allocations of the build
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CoPurchaseIndexBenchmark {
+
+    private static final int BOOKS = 10_000;
+    private static final int MAX_BASKET = 5;
+
+    @Param({"LongIntHashMap", "HashMap"})
+    private String implementation;
+
+    @Param({"1000000"})
+    private int orders;
+
+    private long[][] baskets;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        baskets = new long[orders][];
+        for (int i = 0; i < orders; i++) {
+            baskets[i] = LongStream.generate(() -> bookId(random))
+                    .limit(random.nextInt(1, MAX_BASKET + 1))
+                    .distinct()
+                    .toArray();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long retainedBytes;
+        public long footprintBytes;
+        private long usedBefore;
+        // held until it has been measured
+        private Object index;
+
+        @Setup(Level.Iteration)
+        public void before() {
+            index = null;
+            retainedBytes = 0;
+            footprintBytes = 0;
+            usedBefore = usedHeapAfterGc();
+        }
+
+        @TearDown(Level.Iteration)
+        public void after() {
+            retainedBytes = usedHeapAfterGc() - usedBefore;
+            if (index instanceof CoPurchaseIndex coPurchaseIndex) {
+                footprintBytes = coPurchaseIndex.footprintBytes();
+            }
+            index = null;
+        }
+    }
+
+    @Benchmark
+    public Object build(Footprint footprint) {
+        footprint.index = "LongIntHashMap".equals(implementation) ? buildIndex() : buildBoxed();
+        return footprint.index;
+    }
+
+    private CoPurchaseIndex buildIndex() {
+        // never queried, the orders are added as the startup build adds them
+        CoPurchaseIndex index = new CoPurchaseIndex(new DriverManagerDataSource(), null);
+        for (long[] basket : baskets) {
+            index.add(LongStream.of(basket).boxed().toList());
+        }
+        return index;
+    }
+
+    private Map<Long, Map<Long, Integer>> buildBoxed() {
+        Map<Long, Map<Long, Integer>> index = new HashMap<>();
+        for (long[] basket : baskets) {
+            for (long book : basket) {
+                Map<Long, Integer> counts = index.computeIfAbsent(book, id -> new HashMap<>());
+                for (long otherBook : basket) {
+                    if (otherBook != book) {
+                        counts.merge(otherBook, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    // the square of a uniform value favours the low ids, book 1 is in about 1% of the picks
+    private static long bookId(SplittableRandom random) {
+        double uniform = random.nextDouble();
+        return 1 + (long) (uniform * uniform * BOOKS);
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,68 @@
+package com.bookshop.security;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtAuthTokenFilterBenchmark {
+
+    // false measures the path every request took before the cache: parse the token and load the user
+    @Param({"true", "false"})
+    private boolean cached;
+
+    private final JwtGenerator generator = new JwtGenerator();
+    private final AuthenticatedTokenCache tokenCache = new AuthenticatedTokenCache(10_000, Duration.ofMinutes(10));
+    private JwtAuthTokenFilter filter;
+    private String authorization;
+
+    @Setup
+    public void setUp() {
+        // the user lookup is stubbed, the benchmark measures the filter and not the database
+        CustomUserDetailsService userDetailsService = new CustomUserDetailsService(null) {
+            @Override
+            public UserDetails loadUserByUsername(String username) {
+                return new User(username, "password", List.of(new SimpleGrantedAuthority("USER")));
+            }
+        };
+        filter = new JwtAuthTokenFilter(generator, userDetailsService, tokenCache);
+        authorization = "Bearer " + generator.generateToken(new UsernamePasswordAuthenticationToken("user1", null));
+    }
+
+    @Benchmark
+    public Object doFilter() throws Exception {
+        if (!cached) {
+            tokenCache.invalidateAll();
+        }
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/orders/1");
+        request.addHeader("Authorization", authorization);
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        Object principal = SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        SecurityContextHolder.clearContext();
+        return principal;
+    }
+}
@@ -0,0 +1,48 @@
+package com.bookshop.security;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtGeneratorBenchmark {
+
+    private final JwtGenerator generator = new JwtGenerator();
+    private String token;
+
+    @Setup
+    public void setUp() {
+        token = generator.generateToken(new UsernamePasswordAuthenticationToken("user1", null));
+    }
+
+    @Benchmark
+    public boolean validateToken() {
+        return generator.validateToken(token);
+    }
+
+    @Benchmark
+    public String getUsernameFromJWT() {
+        return generator.getUsernameFromJWT(token);
+    }
+
+    // what JwtAuthTokenFilter does for every authenticated request
+    @Benchmark
+    public String validateAndGetUsername() {
+        generator.validateToken(token);
+        return generator.getUsernameFromJWT(token);
+    }
+}
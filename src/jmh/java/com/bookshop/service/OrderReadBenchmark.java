@@ -0,0 +1,108 @@
+package com.bookshop.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.persistenceunit.PersistenceManagedTypes;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import com.bookshop.dto.OrderDto;
+import com.bookshop.mapper.OrderDtoMapper;
+import com.bookshop.model.Item;
+import com.bookshop.model.Order;
+import com.bookshop.model.Role;
+import com.bookshop.model.User;
+import com.bookshop.repository.OrderHistoryRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.persistence.EntityManager;
+
+// one order read by id against an in-memory H2 database, the user has two roles:
+//  - entity: the former getOrder, the order entity is loaded, its items lazily, the user with its roles eagerly,
+//    and copied through OrderDtoMapper. The entity manager is opened per call like the request scoped one
+//  - projection: OrderHistoryRepository.findById, a single query straight into the dto, with the book titles
+// run with -prof gc to compare the allocations per call
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderReadBenchmark {
+
+    @Param({"1", "10"})
+    private int itemCount;
+
+    private HikariDataSource dataSource;
+    private LocalContainerEntityManagerFactoryBean entityManagerFactory;
+    private OrderHistoryRepository orderHistoryRepository;
+    private final OrderDtoMapper orderDtoMapper = new OrderDtoMapper();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:orders;DB_CLOSE_DELAY=-1");
+
+        // Book is left out, its entity listener needs the Spring context, the projection only reads its table
+        entityManagerFactory = new LocalContainerEntityManagerFactoryBean();
+        entityManagerFactory.setDataSource(dataSource);
+        entityManagerFactory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        entityManagerFactory.setManagedTypes(PersistenceManagedTypes.of(
+                Order.class.getName(), Item.class.getName(), User.class.getName(), Role.class.getName()));
+        entityManagerFactory.setJpaPropertyMap(Map.of(
+                "hibernate.hbm2ddl.auto", "create-drop",
+                "hibernate.physical_naming_strategy", CamelCaseToUnderscoresNamingStrategy.class.getName()));
+        entityManagerFactory.afterPropertiesSet();
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table book (id bigint primary key, title varchar(255))");
+        jdbcTemplate.update("insert into users (id, name, password) values (1, 'user1', 'password')");
+        jdbcTemplate.update("insert into roles (id, name) values (1, 'USER'), (2, 'ADMIN')");
+        jdbcTemplate.update("insert into user_roles (user_id, role_id) values (1, 1), (1, 2)");
+        jdbcTemplate.update("insert into orders (id, user_id, order_date) values (1, 1, ?)", LocalDateTime.now());
+        List<Object[]> items = IntStream.rangeClosed(1, itemCount).mapToObj(i -> new Object[]{i, i, i}).toList();
+        jdbcTemplate.batchUpdate("insert into book (id, title) values (?, 'title ' || ?)",
+                IntStream.rangeClosed(1, itemCount).mapToObj(i -> new Object[]{i, i}).toList());
+        jdbcTemplate.batchUpdate("insert into items (id, book_id, quantity, order_id) values (?, ?, ?, 1)", items);
+
+        orderHistoryRepository = new OrderHistoryRepository(jdbcTemplate);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManagerFactory.destroy();
+        new JdbcTemplate(dataSource).execute("drop table book");
+        dataSource.close();
+    }
+
+    @Benchmark
+    public OrderDto entity() {
+        EntityManager entityManager = entityManagerFactory.getObject().createEntityManager();
+        try {
+            return orderDtoMapper.mapOrderDto(entityManager.find(Order.class, 1L));
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Benchmark
+    public OrderDto projection() {
+        return orderHistoryRepository.findById(1L).orElseThrow();
+    }
+}
@@ -0,0 +1,50 @@
+package com.bookshop.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.bookshop.model.Item;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderServiceBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    private int basketSize;
+
+    private List<Item> basket;
+
+    @Setup
+    public void setUp() {
+        // about a quarter of the lines repeat a book already in the basket, so the merge path is measured too
+        Random random = new Random(42);
+        basket = new ArrayList<>(basketSize);
+        for (int i = 0; i < basketSize; i++) {
+            Item item = new Item();
+            item.setBookId((long) random.nextInt(Math.max(1, basketSize * 3 / 4)) + 1);
+            item.setQuantity(1);
+            basket.add(item);
+        }
+    }
+
+    @Benchmark
+    public List<Item> normaliseOrderedItems() {
+        return OrderService.normaliseOrderedItems(basket);
+    }
+}
@@ -0,0 +1,84 @@
+package com.bookshop.service;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.zaxxer.hikari.HikariDataSource;
+
+// 8 threads ordering the same hot book, each reservation in its own transaction against an in-memory H2 database.
+// With one shard every order waits for the row lock of the previous one until it commits.
+// H2 commits in memory, the rest of the order transaction (order insert, round trips to a real database)
+// is simulated by parking the thread while the row lock is held
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ShardedStockBenchmark {
+
+    private static final long HOT_BOOK = 1L;
+
+    @Param({"1", "2", "4", "8", "16"})
+    private int shards;
+
+    @Param({"0", "100"})
+    private long transactionMicros;
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private ShardedStockService shardedStockService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:shards;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(8);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table book (id bigint primary key, stock int not null, version bigint not null default 0)");
+        jdbcTemplate.execute("create table book_stock_shard (book_id bigint not null, shard int not null, stock int not null, "
+                + "primary key (book_id, shard))");
+        jdbcTemplate.update("insert into book (id, stock) values (?, ?)", HOT_BOOK, Integer.MAX_VALUE);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        shardedStockService = new ShardedStockService(jdbcTemplate, transactionTemplate, true, shards, Set.of(HOT_BOOK));
+        shardedStockService.reconcileShards();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jdbcTemplate.execute("drop table book_stock_shard");
+        jdbcTemplate.execute("drop table book");
+        dataSource.close();
+    }
+
+    @Benchmark
+    public Boolean reserveHotBook() {
+        return transactionTemplate.execute(status -> {
+            boolean reserved = shardedStockService.tryReserve(HOT_BOOK, 1);
+            if (transactionMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(transactionMicros));
+            }
+            return reserved;
+        });
+    }
+}
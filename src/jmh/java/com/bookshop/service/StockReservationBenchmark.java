@@ -0,0 +1,140 @@
+package com.bookshop.service;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.LongStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import com.bookshop.concurrency.StripedLock;
+import com.bookshop.dto.BookDto;
+import com.bookshop.exception.StockUpdateConflictException;
+import com.bookshop.model.Item;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// single book reservations with a Zipfian choice of books (a few bestsellers get most of the orders),
+// 8 threads against an in-memory H2 database:
+//  - lock: the former JVM lock per book around a read and a write of the stock
+//  - atomic: AtomicStockReservationService, a conditional decrement
+//  - optimistic: OptimisticStockReservationService, a version checked update with retries
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class StockReservationBenchmark {
+
+    private static final int BOOKS = 1000;
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    @Param({"lock", "atomic", "optimistic"})
+    private String mode;
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private StripedLock bookLocks;
+    private StockReservationService stockReservationService;
+    private double[] cumulativeProbabilities;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:stock;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(8);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table book (id bigint primary key, stock int not null, version bigint not null default 0)");
+        jdbcTemplate.batchUpdate("insert into book (id, stock) values (?, ?)",
+                LongStream.rangeClosed(1, BOOKS)
+                        .mapToObj(id -> new Object[]{id, Integer.MAX_VALUE})
+                        .toList());
+
+        // the catalog is only asked for titles, it's not part of what is measured
+        BookCatalogService catalog = new BookCatalogService(null, null, null) {
+            @Override
+            public Optional<BookDto> findById(Long id) {
+                return Optional.of(new BookDto(id, "title", "author", "genre"));
+            }
+        };
+        bookLocks = new StripedLock(64);
+        stockReservationService = "optimistic".equals(mode)
+                ? new OptimisticStockReservationService(catalog, jdbcTemplate, event -> { }, new SimpleMeterRegistry(),
+                        10, Duration.ofMillis(1))
+                : new AtomicStockReservationService(catalog, null, jdbcTemplate, event -> { });
+
+        cumulativeProbabilities = new double[BOOKS];
+        double sum = 0;
+        for (int rank = 1; rank <= BOOKS; rank++) {
+            sum += 1 / Math.pow(rank, ZIPF_EXPONENT);
+            cumulativeProbabilities[rank - 1] = sum;
+        }
+        for (int i = 0; i < BOOKS; i++) {
+            cumulativeProbabilities[i] /= sum;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jdbcTemplate.execute("drop table book");
+        dataSource.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Conflicts {
+        public long conflicts;
+    }
+
+    @Benchmark
+    public void reserve(Conflicts counters) {
+        long bookId = nextBookId();
+        try {
+            if ("lock".equals(mode)) {
+                reserveUnderLock(bookId);
+            } else {
+                Item item = new Item();
+                item.setBookId(bookId);
+                item.setQuantity(1);
+                stockReservationService.reserve(List.of(item));
+            }
+        } catch (StockUpdateConflictException e) {
+            counters.conflicts++;
+        }
+    }
+
+    private void reserveUnderLock(long bookId) {
+        Lock lock = bookLocks.get(bookId);
+        lock.lock();
+        try {
+            Integer stock = jdbcTemplate.queryForObject("select stock from book where id = ?", Integer.class, bookId);
+            jdbcTemplate.update("update book set stock = ? where id = ?", stock - 1, bookId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long nextBookId() {
+        int index = Arrays.binarySearch(cumulativeProbabilities, ThreadLocalRandom.current().nextDouble());
+        return (index >= 0 ? index : -index - 1) + 1;
+    }
+}
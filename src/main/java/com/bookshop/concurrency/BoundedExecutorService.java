@@ -0,0 +1,92 @@
+package com.bookshop.concurrency;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Executor decorator that lets at most maxConcurrentTasks tasks of the delegate run at the same time.
+// With a virtual thread per task there is no pool size to limit the blocking work,
+// so the tasks wait for a permit instead of waiting for a free JDBC connection.
+public class BoundedExecutorService extends AbstractExecutorService {
+    private final ExecutorService delegate;
+    private final int maxConcurrentTasks;
+    private final Semaphore permits;
+    // submitted tasks that are not running yet, waiting either for a thread of the delegate or for a permit
+    private final AtomicInteger queuedTasks = new AtomicInteger();
+
+    public BoundedExecutorService(ExecutorService delegate, int maxConcurrentTasks) {
+        this.delegate = delegate;
+        this.maxConcurrentTasks = maxConcurrentTasks;
+        this.permits = new Semaphore(maxConcurrentTasks, true);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        queuedTasks.incrementAndGet();
+        try {
+            delegate.execute(() -> runWithPermit(task));
+        } catch (RuntimeException e) {
+            queuedTasks.decrementAndGet();
+            throw e;
+        }
+    }
+
+    public int activeCount() {
+        return maxConcurrentTasks - permits.availablePermits();
+    }
+
+    public int queuedCount() {
+        return queuedTasks.get();
+    }
+
+    private void runWithPermit(Runnable task) {
+        permits.acquireUninterruptibly();
+        queuedTasks.decrementAndGet();
+        try {
+            task.run();
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    // All tasks submitted before close() are executed, tasks still running after 60 seconds are interrupted
+    public void close() {
+        shutdown();
+        try {
+            if (!awaitTermination(60, TimeUnit.SECONDS)) {
+                shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.bookshop.concurrency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-negative quantity with conditional withdrawals, e.g. the stock of a book. The quantity is a single
+ * compare-and-set word: a withdrawal only succeeds if it leaves the counter at zero or above, no lock is taken
+ * unless a thread waits in withdraw(n, timeout), and then only deposits signal it.
+ * The same pattern Account, SyncAccount and Storage implement with a race or a monitor.
+ */
+public class InventoryCounter {
+
+    private final AtomicLong available;
+
+    // waiting withdrawals register before they try again, a deposit made after that try signals them
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition deposited = waitLock.newCondition();
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    public InventoryCounter(long initial) {
+        checkNotNegative(initial);
+        this.available = new AtomicLong(initial);
+    }
+
+    public void deposit(long quantity) {
+        checkNotNegative(quantity);
+        available.addAndGet(quantity);
+        signalWaiters();
+    }
+
+    // takes the quantity if there is enough, never blocks
+    public boolean tryWithdraw(long quantity) {
+        checkNotNegative(quantity);
+        while (true) {
+            long current = available.get();
+            if (current < quantity) {
+                if (!collectDeposits()) {
+                    return false;
+                }
+            } else if (available.compareAndSet(current, current - quantity)) {
+                return true;
+            }
+        }
+    }
+
+    // waits up to the timeout for deposits making the withdrawal possible, false if there is still not enough
+    public boolean withdraw(long quantity, long timeout, TimeUnit unit) throws InterruptedException {
+        if (tryWithdraw(quantity)) {
+            return true;
+        }
+        long remaining = unit.toNanos(timeout);
+        waitLock.lockInterruptibly();
+        waiters.incrementAndGet();
+        try {
+            while (!tryWithdraw(quantity)) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = deposited.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            waiters.decrementAndGet();
+            waitLock.unlock();
+        }
+    }
+
+    public long get() {
+        return available.get();
+    }
+
+    // moves deposits kept aside into the available quantity, true if there were any
+    protected boolean collectDeposits() {
+        return false;
+    }
+
+    protected final void addAvailable(long quantity) {
+        available.addAndGet(quantity);
+    }
+
+    // waiters want different quantities, one deposit may satisfy several of them
+    protected final void signalWaiters() {
+        if (waiters.get() > 0) {
+            waitLock.lock();
+            try {
+                deposited.signalAll();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    protected static void checkNotNegative(long quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Quantity must not be negative: " + quantity);
+        }
+    }
+}
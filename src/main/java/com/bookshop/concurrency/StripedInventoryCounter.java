@@ -0,0 +1,40 @@
+package com.bookshop.concurrency;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * InventoryCounter for deposit-heavy workloads: deposits go to the per-thread cells of a LongAdder instead of
+ * all threads competing on one word, and are only moved to the withdrawable quantity when a withdrawal runs short.
+ * Each cell is emptied atomically, a deposit is collected exactly once, so the counter still never goes negative.
+ * get() is an estimate while deposits are being made.
+ */
+public class StripedInventoryCounter extends InventoryCounter {
+
+    private final LongAdder deposits = new LongAdder();
+
+    public StripedInventoryCounter(long initial) {
+        super(initial);
+    }
+
+    @Override
+    public void deposit(long quantity) {
+        checkNotNegative(quantity);
+        deposits.add(quantity);
+        signalWaiters();
+    }
+
+    @Override
+    public long get() {
+        return super.get() + deposits.sum();
+    }
+
+    @Override
+    protected boolean collectDeposits() {
+        long collected = deposits.sumThenReset();
+        if (collected == 0) {
+            return false;
+        }
+        addAvailable(collected);
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+package com.bookshop.concurrency;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Fixed set of locks shared by all keys, a key always maps to the same stripe.
+ * Unlike a map of locks created and removed per request, no lock is allocated on the hot path
+ * and two threads can never hold different lock instances for the same key.
+ * Keys mapping to the same stripe are serialized together, more stripes means less needless contention.
+ */
+public class StripedLock {
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public StripedLock(int minStripes) {
+        if (minStripes <= 0) {
+            throw new IllegalArgumentException("Number of stripes must be positive: " + minStripes);
+        }
+        // power of two, so the stripe index is a mask instead of a modulo
+        int size = minStripes == 1 ? 1 : Integer.highestOneBit(minStripes - 1) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    public Lock get(long key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    public int size() {
+        return stripes.length;
+    }
+
+    // stripes held at the moment, read without locking so only an estimate while the locks change hands
+    public int lockedCount() {
+        int locked = 0;
+        for (ReentrantLock stripe : stripes) {
+            if (stripe.isLocked()) {
+                locked++;
+            }
+        }
+        return locked;
+    }
+
+    // threads waiting for a stripe, also an estimate
+    public int waitingCount() {
+        int waiting = 0;
+        for (ReentrantLock stripe : stripes) {
+            waiting += stripe.getQueueLength();
+        }
+        return waiting;
+    }
+
+    /**
+     * Locks the stripes of all keys, always in ascending stripe order, so two callers locking
+     * overlapping baskets can't deadlock. Each stripe is locked once even if several keys share it.
+     */
+    public Locked lockAll(Collection<Long> keys) {
+        int[] indexes = sortedStripeIndexes(keys);
+        int acquired = 0;
+        try {
+            for (int index : indexes) {
+                stripes[index].lock();
+                acquired++;
+            }
+        } catch (RuntimeException | Error e) {
+            unlock(indexes, acquired);
+            throw e;
+        }
+        return new Locked(indexes);
+    }
+
+    /**
+     * Same ordering as lockAll, but gives up once the whole basket could not be locked within the timeout.
+     * The wait of every stripe is reported with the first key mapping to it. Returns empty on timeout,
+     * with none of the stripes held.
+     */
+    public Optional<Locked> tryLockAll(Collection<Long> keys, long timeout, TimeUnit unit,
+                                       ObjLongConsumer<Long> waitListener) throws InterruptedException {
+        List<Long> sortedKeys = keys.stream()
+                .sorted(Comparator.comparingInt(key -> stripeIndex(key)))
+                .toList();
+        int[] indexes = sortedStripeIndexes(keys);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int acquired = 0;
+        int keyPosition = 0;
+        try {
+            for (int index : indexes) {
+                // the first key of the stripe stands for all the keys sharing it
+                while (stripeIndex(sortedKeys.get(keyPosition)) != index) {
+                    keyPosition++;
+                }
+                long waitStart = System.nanoTime();
+                boolean locked = stripes[index].tryLock(deadline - waitStart, TimeUnit.NANOSECONDS);
+                waitListener.accept(sortedKeys.get(keyPosition), System.nanoTime() - waitStart);
+                if (!locked) {
+                    unlock(indexes, acquired);
+                    return Optional.empty();
+                }
+                acquired++;
+            }
+        } catch (InterruptedException | RuntimeException | Error e) {
+            unlock(indexes, acquired);
+            throw e;
+        }
+        return Optional.of(new Locked(indexes));
+    }
+
+    private int[] sortedStripeIndexes(Collection<Long> keys) {
+        return keys.stream()
+                .mapToInt(this::stripeIndex)
+                .distinct()
+                .sorted()
+                .toArray();
+    }
+
+    private int stripeIndex(long key) {
+        int hash = Long.hashCode(key);
+        // spread the high bits, sequential ids would otherwise only use the low stripes of a large table
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void unlock(int[] indexes, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            stripes[indexes[i]].unlock();
+        }
+    }
+
+    // released in reverse acquisition order with try-with-resources
+    public final class Locked implements AutoCloseable {
+        private final int[] indexes;
+
+        private Locked(int[] indexes) {
+            this.indexes = indexes;
+        }
+
+        @Override
+        public void close() {
+            unlock(indexes, indexes.length);
+        }
+    }
+}
@@ -2,73 +2,296 @@ package com.bookshop.concurrency.threadpool;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import lombok.extern.slf4j.Slf4j;
 
-public class MyThreadPool {
+/**
+ * Fixed size work-stealing executor. Every worker has its own deque: tasks submitted from outside the pool are spread
+ * round-robin over the deques, tasks submitted by a task go to the deque of the worker running it. A worker takes
+ * the oldest task of its own deque and, once it is empty, steals the newest task of another worker, so the owner
+ * and the thieves work on opposite ends.
+ * <p>
+ * At most maxQueuedTasks tasks wait in the deques. When they are full the rejection policy decides, a worker
+ * submitting to a full pool always runs the task itself, blocking it could leave no worker to drain the deques.
+ * Completion is tracked with the futures of submit/invokeAll and with shutdown/awaitTermination.
+ * Exceptions thrown by tasks passed to execute go to the uncaught exception handler, the worker keeps running.
+ */
+@Slf4j
+public class MyThreadPool extends AbstractExecutorService {
 
-    private BlockingQueue<Runnable> taskQueue = null;
-    private final List<PoolThreadRunnable> runnableThreadsList = new ArrayList<>();
-    private boolean isStopped = false;
+    public enum RejectionPolicy {
+        // the submitting thread waits for room in the deques
+        BLOCK,
+        // the submitting thread runs the task itself
+        CALLER_RUNS,
+        // execute throws RejectedExecutionException
+        FAIL
+    }
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    // spinning only pays off when the submitting thread runs on another core
+    private static final int SPINS_BEFORE_PARKING = Runtime.getRuntime().availableProcessors() > 1 ? 256 : 0;
+
+    private final Worker[] workers;
+    private final Semaphore capacity;
+    private final RejectionPolicy rejectionPolicy;
+    private final Thread.UncaughtExceptionHandler uncaughtExceptionHandler;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final CountDownLatch terminated;
+    private volatile boolean shutdown;
+
+    public MyThreadPool(int noOfThreads, int maxQueuedTasks) {
+        this(noOfThreads, maxQueuedTasks, RejectionPolicy.BLOCK,
+                (thread, e) -> log.error("Task failed on {}", thread.getName(), e));
+    }
 
-    public MyThreadPool(int noOfThreads, int maxNoOfTasks) {
-        taskQueue = new ArrayBlockingQueue<>(maxNoOfTasks);
-        //create threads to run tasks
+    public MyThreadPool(int noOfThreads, int maxQueuedTasks, RejectionPolicy rejectionPolicy,
+                        Thread.UncaughtExceptionHandler uncaughtExceptionHandler) {
+        if (noOfThreads <= 0 || maxQueuedTasks <= 0) {
+            throw new IllegalArgumentException("Threads and queued tasks must be positive: " + noOfThreads + ", " + maxQueuedTasks);
+        }
+        this.capacity = new Semaphore(maxQueuedTasks);
+        this.rejectionPolicy = rejectionPolicy;
+        this.uncaughtExceptionHandler = uncaughtExceptionHandler;
+        this.terminated = new CountDownLatch(noOfThreads);
+        this.workers = new Worker[noOfThreads];
+        int poolNumber = POOL_NUMBER.incrementAndGet();
         for (int i = 0; i < noOfThreads; i++) {
-            PoolThreadRunnable poolThreadRunnable =
-                    new PoolThreadRunnable(taskQueue);
+            workers[i] = new Worker("my-pool-" + poolNumber + "-worker-" + i);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
 
-            runnableThreadsList.add(poolThreadRunnable);
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException("MyThreadPool is shut down");
+        }
+        Worker current = currentWorker();
+        if (!capacity.tryAcquire()) {
+            if (current != null || rejectionPolicy == RejectionPolicy.CALLER_RUNS) {
+                task.run();
+                return;
+            }
+            if (rejectionPolicy == RejectionPolicy.FAIL) {
+                throw new RejectedExecutionException("MyThreadPool queue is full");
+            }
+            acquireCapacity();
+        }
+        Worker target = current != null ? current : workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+        target.tasks.offerLast(task);
+        if (shutdown && target.tasks.removeLastOccurrence(task)) {
+            // lost the race with shutdownNow, which won't see the task any more
+            capacity.release();
+            throw new RejectedExecutionException("MyThreadPool is shut down");
         }
-        //start created threads
-        for (PoolThreadRunnable runnable : runnableThreadsList) {
-            new Thread(runnable).start();
+        wakeIdleWorker(target);
+    }
+
+    private void acquireCapacity() {
+        try {
+            capacity.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for room in MyThreadPool", e);
         }
     }
 
-    public synchronized void execute(Runnable task) throws Exception {
-        if (this.isStopped) {
-            throw new IllegalStateException("ThreadPool is stopped");
+    // the target first, it has the task at hand, otherwise any parked worker, it will steal it
+    private void wakeIdleWorker(Worker target) {
+        if (target.wake()) {
+            return;
         }
+        for (Worker worker : workers) {
+            if (worker.wake()) {
+                return;
+            }
+        }
+    }
 
-        this.taskQueue.offer(task);
+    private Worker currentWorker() {
+        Thread thread = Thread.currentThread();
+        for (Worker worker : workers) {
+            if (worker.thread == thread) {
+                return worker;
+            }
+        }
+        return null;
     }
 
-    public synchronized void stop() {
-        this.isStopped = true;
-        for (PoolThreadRunnable runnable : runnableThreadsList) {
-            runnable.doStop();
+    // queued tasks are still run, new ones are rejected
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
         }
     }
 
-    public synchronized void waitUntilAllTasksFinished() {
-        while (this.taskQueue.size() > 0) {
-            try {
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> notStarted = new ArrayList<>();
+        for (Worker worker : workers) {
+            Runnable task;
+            while ((task = worker.tasks.pollFirst()) != null) {
+                capacity.release();
+                notStarted.add(task);
             }
         }
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+        return notStarted;
     }
 
-    public static void main(String[] args) throws Exception {
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
 
-        MyThreadPool threadPool = new MyThreadPool(3, 10);
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
 
-        for (int i = 0; i < 10; i++) {
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
 
-            int taskNo = i;
-            threadPool.execute(() -> {
-                String message =
-                        Thread.currentThread().getName()
-                                + ": Task " + taskNo;
-                System.out.println(message);
-            });
+    public int queuedCount() {
+        int queued = 0;
+        for (Worker worker : workers) {
+            queued += worker.tasks.size();
         }
+        return queued;
+    }
 
-        threadPool.waitUntilAllTasksFinished();
-        threadPool.stop();
+    private Runnable steal(Worker thief) {
+        // starting at a random victim, so the thieves don't all pile up on the first deques
+        int start = ThreadLocalRandom.current().nextInt(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            Worker victim = workers[(start + i) % workers.length];
+            if (victim != thief) {
+                Runnable task = victim.tasks.pollLast();
+                if (task != null) {
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
 
+    private boolean hasQueuedTasks() {
+        for (Worker worker : workers) {
+            if (!worker.tasks.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
     }
 
+    private final class Worker implements Runnable {
+        private final ConcurrentLinkedDeque<Runnable> tasks = new ConcurrentLinkedDeque<>();
+        private final AtomicBoolean idle = new AtomicBoolean();
+        private final Thread thread;
+
+        private Worker(String name) {
+            this.thread = new Thread(this, name);
+        }
+
+        // true if this worker was parked and is now woken up for a new task
+        private boolean wake() {
+            if (idle.get() && idle.compareAndSet(true, false)) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Runnable task = tasks.pollFirst();
+                    if (task == null) {
+                        task = steal(this);
+                    }
+                    if (task != null) {
+                        capacity.release();
+                        runTask(task);
+                    } else if (shutdown) {
+                        return;
+                    } else {
+                        awaitTask();
+                    }
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        // spins a little first, short tasks arrive faster than a parked thread wakes up.
+        // idle is published before the deques are checked again, a task queued after that check wakes this worker
+        private void awaitTask() {
+            for (int spin = 0; spin < SPINS_BEFORE_PARKING; spin++) {
+                if (hasQueuedTasks() || shutdown) {
+                    return;
+                }
+                Thread.onSpinWait();
+            }
+            idle.set(true);
+            if (hasQueuedTasks() || shutdown) {
+                idle.set(false);
+                return;
+            }
+            LockSupport.park(this);
+            idle.set(false);
+        }
+
+        private void runTask(Runnable task) {
+            // an interrupt from shutdownNow is meant for the running task only
+            if (!shutdown) {
+                Thread.interrupted();
+            }
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                uncaughtExceptionHandler.uncaughtException(thread, e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        MyThreadPool threadPool = new MyThreadPool(3, 10);
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int taskNo = i;
+            results.add(threadPool.submit(() -> Thread.currentThread().getName() + ": Task " + taskNo));
+        }
+        for (Future<String> result : results) {
+            System.out.println(result.get());
+        }
+
+        threadPool.shutdown();
+        threadPool.awaitTermination(1, TimeUnit.SECONDS);
+    }
 }
@@ -1,36 +0,0 @@
-package com.bookshop.concurrency.threadpool;
-
-import java.util.concurrent.BlockingQueue;
-
-public class PoolThreadRunnable implements Runnable {
-    private Thread thread = null;
-    private BlockingQueue<Runnable> taskQueue = null;
-    private boolean isStopped = false;
-
-    public PoolThreadRunnable(BlockingQueue<Runnable> queue) {
-        taskQueue = queue;
-    }
-
-    public void run() {
-        this.thread = Thread.currentThread();
-        while (!isStopped()) {
-            try {
-                Runnable runnableTask =  taskQueue.take();
-                runnableTask.run();
-            } catch (Exception e) {
-                //log or otherwise report exception,but keep pool thread alive.
-            }
-        }
-    }
-
-    public synchronized void doStop() {
-        isStopped = true;
-        //break pool thread out of dequeue() call.
-        this.thread.interrupt();
-    }
-
-    public synchronized boolean isStopped() {
-        return isStopped;
-    }
-
-}
@@ -0,0 +1,348 @@
+package com.bookshop.concurrency.threadpool;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded multi-producer multi-consumer queue on an array ring buffer, lock-free on offer and poll.
+ * Every slot carries a sequence number telling whether it is free for the producer of a given position or holds
+ * the element of a given position for its consumer, so producers and consumers only compete on the CAS of
+ * their own counter (the Disruptor / Vyukov bounded queue). The two counters are padded to separate cache lines.
+ * Nothing is allocated per element.
+ * <p>
+ * put/take and the timed offer/poll wait with the WaitStrategy given at construction, only PARK takes a lock,
+ * and only while a thread actually waits. The iterator is a weakly consistent snapshot, removing an arbitrary
+ * element (remove(Object), Iterator.remove) is not supported.
+ */
+public class RingBufferBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    public enum WaitStrategy {
+        // busy spins, lowest latency, burns a core per waiting thread
+        SPIN,
+        // gives the core away between attempts
+        YIELD,
+        // parks until signalled, the only one fit for more waiting threads than cores
+        PARK
+    }
+
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final int capacity;
+    private final WaitStrategy waitStrategy;
+    // next position to be claimed by a producer, resp. a consumer
+    private final PaddedCounter tail = new PaddedCounter();
+    private final PaddedCounter head = new PaddedCounter();
+
+    // PARK only: waiting threads register before they check the queue again, so a signal is never missed
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition notEmpty = waitLock.newCondition();
+    private final Condition notFull = waitLock.newCondition();
+    private final AtomicInteger waitingConsumers = new AtomicInteger();
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+
+    public RingBufferBlockingQueue(int minCapacity, WaitStrategy waitStrategy) {
+        if (minCapacity <= 0 || minCapacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + minCapacity);
+        }
+        // power of two, so the slot index is a mask instead of a modulo
+        this.capacity = minCapacity == 1 ? 1 : Integer.highestOneBit(minCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.buffer = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer[index] = element;
+                    // publishes the element to the consumer of this position
+                    sequences.set(index, position + 1);
+                    signal(waitingConsumers, notEmpty);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the slot still holds the element of the previous lap
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = (E) buffer[index];
+                    buffer[index] = null;
+                    // frees the slot for the producer of the next lap
+                    sequences.set(index, position + capacity);
+                    signal(waitingProducers, notFull);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    @Override
+    public void put(E element) throws InterruptedException {
+        while (!offer(element)) {
+            awaitSlot(Long.MAX_VALUE, false);
+        }
+    }
+
+    @Override
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(element)) {
+            if (!awaitSlot(deadline, true)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E element;
+        while ((element = poll()) == null) {
+            awaitElement(Long.MAX_VALUE, false);
+        }
+        return element;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E element;
+        while ((element = poll()) == null) {
+            if (!awaitElement(deadline, true)) {
+                return null;
+            }
+        }
+        return element;
+    }
+
+    // false once the deadline has passed
+    private boolean awaitElement(long deadline, boolean timed) throws InterruptedException {
+        return await(deadline, timed, waitingConsumers, notEmpty, this::hasElement);
+    }
+
+    private boolean awaitSlot(long deadline, boolean timed) throws InterruptedException {
+        return await(deadline, timed, waitingProducers, notFull, this::hasFreeSlot);
+    }
+
+    private boolean await(long deadline, boolean timed, AtomicInteger waiters, Condition condition,
+                          BooleanSupplier ready) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        long remaining = deadline - System.nanoTime();
+        if (timed && remaining <= 0) {
+            return false;
+        }
+        switch (waitStrategy) {
+            case SPIN -> Thread.onSpinWait();
+            case YIELD -> Thread.yield();
+            case PARK -> {
+                waitLock.lockInterruptibly();
+                waiters.incrementAndGet();
+                try {
+                    while (!ready.getAsBoolean()) {
+                        if (!timed) {
+                            condition.await();
+                        } else if (remaining <= 0) {
+                            return false;
+                        } else {
+                            remaining = condition.awaitNanos(remaining);
+                        }
+                    }
+                    // the slot may be taken by a thread that didn't wait, the next waiter gets a chance too
+                    condition.signal();
+                } finally {
+                    waiters.decrementAndGet();
+                    waitLock.unlock();
+                }
+            }
+        }
+        return true;
+    }
+
+    private void signal(AtomicInteger waiters, Condition condition) {
+        if (waitStrategy == WaitStrategy.PARK && waiters.get() > 0) {
+            waitLock.lock();
+            try {
+                condition.signal();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    private boolean hasElement() {
+        long position = head.get();
+        return sequences.get((int) position & mask) == position + 1;
+    }
+
+    private boolean hasFreeSlot() {
+        long position = tail.get();
+        return sequences.get((int) position & mask) == position;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        while (true) {
+            long position = head.get();
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                return null;
+            }
+            E element = (E) buffer[index];
+            // the element is only valid if no consumer took it meanwhile
+            if (element != null && head.get() == position) {
+                return element;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        while (true) {
+            long consumed = head.get();
+            long claimed = tail.get();
+            if (head.get() == consumed) {
+                return (int) Math.max(0, Math.min(capacity, claimed - consumed));
+            }
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        if (collection == this) {
+            throw new IllegalArgumentException();
+        }
+        int drained = 0;
+        E element;
+        while (drained < maxElements && (element = poll()) != null) {
+            collection.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        long position = head.get();
+        long end = tail.get();
+        for (; position < end; position++) {
+            E element = elementAt(position);
+            if (element != null) {
+                snapshot.add(element);
+            }
+        }
+        Iterator<E> iterator = snapshot.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return iterator.next();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(long position) {
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        E element = (E) buffer[index];
+        return sequences.get(index) == position + 1 ? element : null;
+    }
+
+    // fields of a superclass are laid out before those of the subclass, so the counter sits between two blocks
+    // of 56 bytes and never shares a cache line with the other counter or with another object
+    @SuppressWarnings("unused")
+    private static class LeftPadding {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    private static class CounterValue extends LeftPadding {
+        volatile long value;
+    }
+
+    @SuppressWarnings("unused")
+    private static final class PaddedCounter extends CounterValue {
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(CounterValue.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        long p11, p12, p13, p14, p15, p16, p17;
+
+        long get() {
+            return value;
+        }
+
+        boolean compareAndSet(long expected, long updated) {
+            return VALUE.compareAndSet(this, expected, updated);
+        }
+    }
+}
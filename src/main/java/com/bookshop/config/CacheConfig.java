@@ -0,0 +1,11 @@
+package com.bookshop.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+// caches are created by Spring Boot from spring.cache.* properties, Actuator binds their hit/miss/eviction metrics
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    public static final String BOOK_CATALOG_CACHE = "bookCatalog";
+}
@@ -0,0 +1,89 @@
+package com.bookshop.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import com.bookshop.concurrency.BoundedExecutorService;
+import com.bookshop.concurrency.StripedLock;
+import com.bookshop.concurrency.threadpool.MyThreadPool;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@Configuration
+public class ExecutorConfig {
+
+    // one executor shared by the order, recommendation and transfer services.
+    // spring.threads.virtual.enabled is the same switch Spring Boot uses to run Tomcat requests on virtual threads
+    @Bean
+    public BoundedExecutorService orderExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                                @Value("${bookshop.executor.pool-size:10}") int poolSize,
+                                                @Value("${bookshop.executor.type:fixed}") String type,
+                                                @Value("${bookshop.executor.queue-capacity:10000}") int queueCapacity,
+                                                @Value("${bookshop.executor.rejection-policy:BLOCK}") MyThreadPool.RejectionPolicy rejectionPolicy,
+                                                @Value("${spring.datasource.hikari.maximum-pool-size:10}") int maxDbConnections) {
+        ExecutorService executor;
+        if (virtualThreads) {
+            executor = virtualThreadPerTaskExecutor(poolSize);
+        } else if ("work-stealing".equals(type)) {
+            executor = new MyThreadPool(poolSize, queueCapacity, rejectionPolicy,
+                    (thread, e) -> log.error("Order executor task failed on {}", thread.getName(), e));
+        } else {
+            executor = Executors.newFixedThreadPool(poolSize);
+        }
+        // every task of these services talks to the database, no point running more of them than there are connections
+        return new BoundedExecutorService(executor, maxDbConnections);
+    }
+
+    private static ExecutorService virtualThreadPerTaskExecutor(int fallbackPoolSize) {
+        // looked up reflectively: the sources target Java 17, virtual threads need a Java 21 runtime
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            log.info("Order executor runs a virtual thread per task");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads are not available on Java {}, using a fixed pool of {} threads",
+                    Runtime.version().feature(), fallbackPoolSize);
+            return Executors.newFixedThreadPool(fallbackPoolSize);
+        }
+    }
+
+    // running tasks and tasks waiting for a thread or a database permit
+    @Bean
+    public MeterBinder orderExecutorMetrics(BoundedExecutorService orderExecutor) {
+        return registry -> {
+            Gauge.builder("bookshop.executor.active", orderExecutor, BoundedExecutorService::activeCount)
+                    .description("Tasks running on the order executor")
+                    .register(registry);
+            Gauge.builder("bookshop.executor.queued", orderExecutor, BoundedExecutorService::queuedCount)
+                    .description("Tasks submitted to the order executor and not running yet")
+                    .register(registry);
+        };
+    }
+
+    // per-book locks, order updates take the locks of all their books
+    @Bean
+    public StripedLock bookLocks(@Value("${bookshop.book-locks.stripes:64}") int stripes) {
+        return new StripedLock(stripes);
+    }
+
+    @Bean
+    public MeterBinder bookLockMetrics(StripedLock bookLocks) {
+        return registry -> {
+            Gauge.builder("bookshop.book-locks.stripes", bookLocks, StripedLock::size)
+                    .description("Stripes shared by the book locks")
+                    .register(registry);
+            Gauge.builder("bookshop.book-locks.locked", bookLocks, StripedLock::lockedCount)
+                    .description("Book lock stripes currently held")
+                    .register(registry);
+            Gauge.builder("bookshop.book-locks.waiting", bookLocks, StripedLock::waitingCount)
+                    .description("Threads waiting for a book lock stripe")
+                    .register(registry);
+        };
+    }
+}
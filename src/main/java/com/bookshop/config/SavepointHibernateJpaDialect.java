@@ -0,0 +1,70 @@
+package com.bookshop.config;
+
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.SavepointManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionSystemException;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hibernate dialect with JDBC savepoints on the connection of the session, so PROPAGATION_NESTED works with JPA.
+ * The session is flushed before a savepoint is set, the changes of the enclosing transaction are then in the
+ * database and survive a rollback to it. Rolling back to a savepoint clears the session: entities loaded or
+ * changed since no longer match the database, and the ones loaded before are detached.
+ */
+@Slf4j
+public class SavepointHibernateJpaDialect extends HibernateJpaDialect {
+
+    @Override
+    public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition)
+            throws SQLException, TransactionException {
+        Object transactionData = super.beginTransaction(entityManager, definition);
+        return new SavepointTransactionData(transactionData, getSession(entityManager));
+    }
+
+    @Override
+    public void cleanupTransaction(Object transactionData) {
+        super.cleanupTransaction(transactionData instanceof SavepointTransactionData data ? data.transactionData : transactionData);
+    }
+
+    // JpaTransactionManager takes the savepoints from the transaction data of the dialect
+    private record SavepointTransactionData(Object transactionData, Session session) implements SavepointManager {
+
+        @Override
+        public Object createSavepoint() throws TransactionException {
+            try {
+                session.flush();
+                return session.doReturningWork(connection -> connection.setSavepoint());
+            } catch (HibernateException e) {
+                throw new CannotCreateTransactionException("Could not create JDBC savepoint", e);
+            }
+        }
+
+        @Override
+        public void rollbackToSavepoint(Object savepoint) throws TransactionException {
+            try {
+                session.doWork(connection -> connection.rollback((Savepoint) savepoint));
+                session.clear();
+            } catch (HibernateException e) {
+                throw new TransactionSystemException("Could not roll back to JDBC savepoint", e);
+            }
+        }
+
+        @Override
+        public void releaseSavepoint(Object savepoint) throws TransactionException {
+            try {
+                session.doWork(connection -> connection.releaseSavepoint((Savepoint) savepoint));
+            } catch (HibernateException e) {
+                // the savepoint goes away with the transaction anyway
+                log.debug("Could not explicitly release JDBC savepoint", e);
+            }
+        }
+    }
+}
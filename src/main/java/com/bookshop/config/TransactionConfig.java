@@ -0,0 +1,26 @@
+package com.bookshop.config;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+// nested transactions (savepoints) for GroupCommit: each write of a group can roll back alone inside the shared transaction
+@Configuration
+public class TransactionConfig {
+
+    // only the dialect of the entity manager factory of Spring Boot is replaced, its vendor adapter and settings are kept.
+    // Transactions without savepoints behave as with the default dialect
+    @Bean
+    public static BeanPostProcessor savepointJpaDialect() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof LocalContainerEntityManagerFactoryBean entityManagerFactory) {
+                    entityManagerFactory.setJpaDialect(new SavepointHibernateJpaDialect());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -1,15 +1,22 @@
 package com.bookshop.controller;
 
-import java.util.concurrent.ExecutionException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
 import com.bookshop.dto.BookOrderRequest;
 import com.bookshop.dto.OrderDto;
-import com.bookshop.exception.InsufficientStockException;
-import com.bookshop.exception.OrderNotFoundException;
-import com.bookshop.exception.ProductNotFoundException;
+import com.bookshop.dto.OrderHistoryPage;
+import com.bookshop.service.BulkOrderImportService;
+import com.bookshop.service.OrderHistoryService;
 import com.bookshop.service.OrderService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -18,6 +25,7 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @Slf4j
@@ -26,32 +34,23 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("api/order")
 public class BookOrderController {
     private final OrderService orderService;
+    private final BulkOrderImportService bulkOrderImportService;
+    private final OrderHistoryService orderHistoryService;
+    private final ObjectMapper objectMapper;
 
-    public static void handleError(Throwable e) {
-        Throwable cause = e.getCause();
-        if (cause instanceof ProductNotFoundException) {
-            log.error("Order processing ProductNotFoundException: {}", cause.getMessage());
-            throw (ProductNotFoundException) cause;
-        }
-        if (cause instanceof InsufficientStockException) {
-            log.error("Order processing InsufficientStockException: {}", cause.getMessage());
-            throw (InsufficientStockException) cause;
-        }
-        if (cause instanceof OrderNotFoundException) {
-            log.error("Order processing OrderNotFoundException: {}", cause.getMessage());
-            throw (OrderNotFoundException) cause;
-        }
+    @PostMapping
+    public CompletableFuture<ResponseEntity<OrderDto>> createOrder(@RequestBody BookOrderRequest orderRequest) {
+        return orderService.createOrder(orderRequest)
+                .thenApply(order -> new ResponseEntity<>(order, HttpStatus.CREATED));
     }
 
-    @PostMapping
-    public ResponseEntity<OrderDto> createOrder(@RequestBody BookOrderRequest orderRequest)
-            throws ExecutionException, InterruptedException {
-        try {
-            return new ResponseEntity<>(orderService.createOrder(orderRequest), HttpStatus.CREATED);
-        } catch (ExecutionException e) {
-            handleError(e);
-            throw e;
-        }
+    // a JSON array or NDJSON of orders, answered with one NDJSON line per order as the batches are placed.
+    // runs on the request thread, so large uploads are not cut by the async request timeout
+    @PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public void importOrders(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        bulkOrderImportService.importOrders(request.getInputStream(), response.getOutputStream());
     }
 
     @GetMapping("/{id}")
@@ -59,10 +58,33 @@ public class BookOrderController {
             return new ResponseEntity<>(orderService.getOrder(id), HttpStatus.OK);
     }
 
+    @GetMapping("/user/{userId}")
+    public ResponseEntity<OrderHistoryPage> getUserOrders(@PathVariable Long userId,
+                                                          @RequestParam(required = false) String cursor,
+                                                          @RequestParam(defaultValue = "20") int size) {
+        return new ResponseEntity<>(orderHistoryService.getUserOrders(userId, cursor, size), HttpStatus.OK);
+    }
+
+    // the whole history as NDJSON, written while the rows are read
+    @GetMapping(value = "/user/{userId}/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void exportUserOrders(@PathVariable Long userId, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        try (SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n").writeValues(response.getOutputStream())) {
+            orderHistoryService.exportUserOrders(userId, order -> {
+                try {
+                    writer.write(order);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> deleteOrder(@PathVariable Long id) {
         orderService.deleteOrder(id);
-        log.info("Order with id {}  was deleted  ", id);
+        log.debug("Order with id {}  was deleted  ", id);
         return new ResponseEntity<>(HttpStatus.OK);
     }
     @GetMapping("/check")
@@ -71,14 +93,10 @@ public class BookOrderController {
     }
 
     @PutMapping("/{id}")
-    public ResponseEntity<OrderDto> updateOrder(@RequestBody BookOrderRequest orderRequest,
-                                                @PathVariable Long id) throws ExecutionException, InterruptedException {
-        log.info("Update bookOrderRequest received");
-        try {
-            return new ResponseEntity<>(orderService.updateOrder(id, orderRequest), HttpStatus.OK);
-        } catch (ExecutionException e) {
-            handleError(e);
-            throw e;
-        }
+    public CompletableFuture<ResponseEntity<OrderDto>> updateOrder(@RequestBody BookOrderRequest orderRequest,
+                                                                   @PathVariable Long id) {
+        log.debug("Update bookOrderRequest received");
+        return orderService.updateOrder(id, orderRequest)
+                .thenApply(order -> new ResponseEntity<>(order, HttpStatus.OK));
     }
 }
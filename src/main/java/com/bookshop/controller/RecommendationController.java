@@ -0,0 +1,44 @@
+package com.bookshop.controller;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import com.bookshop.dto.BookDto;
+import com.bookshop.dto.BookOrderRequest;
+import com.bookshop.dto.OrderRecommendationsResponse;
+import com.bookshop.model.Item;
+import com.bookshop.service.RecommendationService;
+import lombok.AllArgsConstructor;
+
+@AllArgsConstructor
+@RestController
+@RequestMapping("api/recommendations")
+public class RecommendationController {
+    private final RecommendationService recommendationService;
+
+    // recommendations for a basket before checkout, answered by bookshop.recommendation.deadline at the latest
+    @PostMapping
+    public CompletableFuture<ResponseEntity<List<BookDto>>> getRecommendations(@RequestBody BookOrderRequest orderRequest) {
+        return recommendationService.getRecommendations(orderRequest)
+                .thenApply(recommendations -> new ResponseEntity<>(recommendations, HttpStatus.OK));
+    }
+
+    // "customers also bought" for a basket
+    @PostMapping("/co-purchased")
+    public ResponseEntity<List<BookDto>> getCoPurchaseRecommendations(@RequestBody BookOrderRequest orderRequest) {
+        List<Long> bookIds = orderRequest.getOrderItems().stream().map(Item::getBookId).distinct().toList();
+        return new ResponseEntity<>(recommendationService.getCoPurchaseRecommendations(bookIds), HttpStatus.OK);
+    }
+
+    @GetMapping("/order/{id}")
+    public ResponseEntity<OrderRecommendationsResponse> getOrderRecommendations(@PathVariable Long id) {
+        return new ResponseEntity<>(recommendationService.getOrderRecommendations(id), HttpStatus.OK);
+    }
+}
@@ -0,0 +1,5 @@
+package com.bookshop.dto;
+
+// catalog fields of a book, stock is left out on purpose: it changes with every order and is only read from the database
+public record BookDto(Long id, String title, String author, String genre) {
+}
@@ -0,0 +1,8 @@
+package com.bookshop.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// one line of the bulk import response: index is the position of the order in the uploaded stream
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BulkOrderResult(long index, Long orderId, String error) {
+}
@@ -1,5 +1,6 @@
 package com.bookshop.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Builder;
 import lombok.Data;
 @Data
@@ -9,4 +10,7 @@ public class ItemDto {
 
     private Long bookId;
     private int quantity;
+    // only filled on the read paths, the order writes don't load the books
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String title;
 }
@@ -0,0 +1,7 @@
+package com.bookshop.dto;
+
+import java.util.List;
+
+// nextCursor is passed back to get the following page, it is null on the last page
+public record OrderHistoryPage(List<OrderDto> orders, String nextCursor) {
+}
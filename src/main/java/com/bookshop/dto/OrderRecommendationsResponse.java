@@ -1,7 +1,7 @@
 package com.bookshop.dto;
 
-import com.bookshop.model.Order;
+import java.util.List;
 
-public record OrderRecommendationsResponse(Order order, String recommendations) {
+public record OrderRecommendationsResponse(OrderDto order, List<BookDto> recommendations) {
 
 }
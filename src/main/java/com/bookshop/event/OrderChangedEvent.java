@@ -0,0 +1,7 @@
+package com.bookshop.event;
+
+import java.util.List;
+
+// books of an order before and after it was created, updated or deleted, listeners get it after the commit
+public record OrderChangedEvent(List<Long> previousBookIds, List<Long> currentBookIds) {
+}
@@ -0,0 +1,7 @@
+package com.bookshop.event;
+
+import java.util.Collection;
+
+// published whenever the stock of these books was changed by an order, listeners get it after the commit
+public record StockChangedEvent(Collection<Long> bookIds) {
+}
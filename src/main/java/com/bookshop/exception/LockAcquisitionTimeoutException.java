@@ -0,0 +1,7 @@
+package com.bookshop.exception;
+
+public class LockAcquisitionTimeoutException extends RuntimeException {
+    public LockAcquisitionTimeoutException(String message) {
+        super(message);
+    }
+}
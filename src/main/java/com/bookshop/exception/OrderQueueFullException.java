@@ -0,0 +1,7 @@
+package com.bookshop.exception;
+
+public class OrderQueueFullException extends RuntimeException {
+    public OrderQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.bookshop.exception;
+
+public class StockUpdateConflictException extends RuntimeException {
+    public StockUpdateConflictException(String message) {
+        super(message);
+    }
+}
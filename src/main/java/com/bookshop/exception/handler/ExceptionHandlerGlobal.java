@@ -1,38 +1,83 @@
 package com.bookshop.exception.handler;
 
+import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
 import com.bookshop.exception.InsufficientStockException;
+import com.bookshop.exception.InvalidCursorException;
+import com.bookshop.exception.LockAcquisitionTimeoutException;
 import com.bookshop.exception.OrderNotFoundException;
+import com.bookshop.exception.OrderQueueFullException;
 import com.bookshop.exception.ProductNotFoundException;
+import com.bookshop.exception.StockUpdateConflictException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @RestControllerAdvice
 public class ExceptionHandlerGlobal {
 
     public static final Logger log = LoggerFactory.getLogger(ExceptionHandlerGlobal.class);
 
+    private final MeterRegistry meterRegistry;
+
+    public ExceptionHandlerGlobal(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
     @ExceptionHandler({OrderNotFoundException.class, ProductNotFoundException.class})
     @ResponseStatus(HttpStatus.NOT_FOUND)
     public ResponseEntity<String> handleNotFoundException(RuntimeException ex) {
         log.error("Not found exception @RestControllerAdvice : {}", ex.getMessage());
+        countException(ex);
         return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
     }
 
-    @ExceptionHandler({InsufficientStockException.class})
+    @ExceptionHandler({InsufficientStockException.class, InvalidCursorException.class})
     @ResponseStatus(HttpStatus.BAD_REQUEST)
-    public ResponseEntity<String> handleInsufficientStockException(RuntimeException ex) {
-        log.error("Insufficient stock exception @RestControllerAdvice: {}", ex.getMessage());
+    public ResponseEntity<String> handleBadRequestException(RuntimeException ex) {
+        log.error("Bad request exception @RestControllerAdvice: {}", ex.getMessage());
+        countException(ex);
         return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
     }
 
+    // the order was not touched, the client can retry the same request
+    @ExceptionHandler({LockAcquisitionTimeoutException.class, StockUpdateConflictException.class,
+            OrderQueueFullException.class, RejectedExecutionException.class})
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ResponseEntity<String> handleContentionException(RuntimeException ex) {
+        log.error("Contention exception @RestControllerAdvice: {}", ex.getMessage());
+        countException(ex);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(ex.getMessage());
+    }
+
+    @ExceptionHandler({AsyncRequestTimeoutException.class})
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ResponseEntity<String> handleAsyncRequestTimeoutException(AsyncRequestTimeoutException ex) {
+        log.error("Async request timeout exception @RestControllerAdvice");
+        return new ResponseEntity<>("Order processing timed out", HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler(Exception.class)
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
     public ResponseEntity<String> handleGenericException(Exception ex) {
         return new ResponseEntity<>("An unexpected error occurred: " + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
     }
+
+    // the expected business failures, unexpected ones show up in http.server.requests with their exception tag
+    private void countException(RuntimeException ex) {
+        Counter.builder("bookshop.exceptions")
+                .description("Business exceptions answered by the API")
+                .tag("exception", ex.getClass().getSimpleName())
+                .register(meterRegistry)
+                .increment();
+    }
 }
@@ -0,0 +1,10 @@
+package com.bookshop.ledger;
+
+public enum LedgerDurability {
+    // the order request returns once the flush carrying its stock change has committed,
+    // concurrent orders still share that flush
+    SYNC,
+    // the order request returns at its own commit, the stock change is written by the next flush.
+    // A crash loses the unflushed changes, recovery recomputes them from the ordered items
+    GROUP_COMMIT
+}
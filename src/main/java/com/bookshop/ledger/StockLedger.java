@@ -0,0 +1,291 @@
+package com.bookshop.ledger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.bookshop.concurrency.InventoryCounter;
+import com.bookshop.event.StockChangedEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stock of every book as in-memory counters, so accepting an order doesn't wait on book rows.
+ * Withdrawals take effect at once and are undone if the order transaction rolls back, deposits take effect
+ * when it commits. Committed changes are written to book.stock by a single flusher thread, as one batch
+ * every flush-interval or every flush-operations changes. In SYNC durability, the caller waits for the flush
+ * with awaitFlushed after its transaction has released its connection. The ledger owns the stock column while it runs:
+ * it only fits a single application instance, and stock must not be edited through the book entity meanwhile.
+ * Stock sharding is refused, shards left by an earlier run are folded back into the book rows at startup.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "bookshop.stock.mode", havingValue = "ledger")
+public class StockLedger {
+
+    private static final String ADD_STOCK_SQL = "update book set stock = stock + ?, version = version + 1 where id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final StockLedgerRecovery recovery;
+    private final LedgerDurability durability;
+    private final Duration flushInterval;
+    private final int flushOperations;
+    private final Duration syncTimeout;
+
+    private final Map<Long, InventoryCounter> counters = new ConcurrentHashMap<>();
+    private final Queue<StockDelta> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // SYNC durability: flushes of the changes committed on this thread, awaited by awaitFlushed once the transaction
+    // has released its connection. Waiting in afterCompletion would hold it, the flusher could starve for a connection
+    private final ThreadLocal<List<CompletableFuture<Void>>> unflushed = ThreadLocal.withInitial(ArrayList::new);
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stock-ledger-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StockLedger(JdbcTemplate jdbcTemplate,
+                       TransactionTemplate transactionTemplate,
+                       ApplicationEventPublisher eventPublisher,
+                       @Value("${bookshop.stock.ledger.durability:GROUP_COMMIT}") LedgerDurability durability,
+                       @Value("${bookshop.stock.ledger.flush-interval:5ms}") Duration flushInterval,
+                       @Value("${bookshop.stock.ledger.flush-operations:500}") int flushOperations,
+                       @Value("${bookshop.stock.ledger.sync-timeout:5s}") Duration syncTimeout,
+                       @Value("${bookshop.stock.sharding.enabled:false}") boolean sharding) {
+        // sharded books take stock from book_stock_shard rows the counters and the recovery know nothing about
+        if (sharding) {
+            throw new IllegalStateException("bookshop.stock.mode=ledger can't be used with bookshop.stock.sharding.enabled=true");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+        this.recovery = new StockLedgerRecovery(jdbcTemplate, transactionTemplate);
+        this.durability = durability;
+        this.flushInterval = flushInterval;
+        this.flushOperations = flushOperations;
+        this.syncTimeout = syncTimeout;
+    }
+
+    @PostConstruct
+    public void start() {
+        recovery.start().forEach((bookId, stock) -> counters.put(bookId, newCounter(stock)));
+        flusher.scheduleWithFixedDelay(this::flush, flushInterval.toNanos(), flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+        log.info("Stock ledger loaded {} books, {} durability, flushed every {} or {} changes",
+                counters.size(), durability, flushInterval, flushOperations);
+    }
+
+    // everything committed is flushed before the database goes away, the next start can trust book.stock
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        flusher.shutdown();
+        if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("Stock ledger flusher did not stop in time");
+        }
+        try {
+            flushPending();
+            recovery.markClean(true);
+            log.info("Stock ledger flushed and stopped cleanly");
+        } catch (RuntimeException e) {
+            log.error("Stock ledger could not flush before stopping, the stock is recomputed at the next start", e);
+        }
+    }
+
+    // takes the quantity if there is enough, the change is flushed if the current transaction commits
+    public boolean tryWithdraw(Long bookId, int quantity) {
+        InventoryCounter counter = counter(bookId);
+        if (counter == null || !counter.tryWithdraw(quantity)) {
+            return false;
+        }
+        afterCommit(new StockChange(bookId, -quantity, () -> counter.deposit(quantity)));
+        return true;
+    }
+
+    // released stock becomes available to other orders only once the releasing transaction commits
+    public void deposit(Long bookId, int quantity) {
+        if (counter(bookId) != null) {
+            afterCommit(new StockChange(bookId, quantity, () -> { }));
+        }
+    }
+
+    private InventoryCounter counter(Long bookId) {
+        InventoryCounter counter = counters.get(bookId);
+        if (counter != null) {
+            return counter;
+        }
+        // a book created since the start, not cached while missing so it can be created later
+        Integer stock = recovery.addBook(bookId);
+        return stock == null ? null : counters.computeIfAbsent(bookId, id -> newCounter(stock));
+    }
+
+    // a negative stock left by older data can't be ordered from, the flushed deltas still apply to the column
+    private static InventoryCounter newCounter(int stock) {
+        return new InventoryCounter(Math.max(0, stock));
+    }
+
+    // the changes of a transaction are collected by one synchronization, a SYNC order waits for one flush, not one per book
+    private void afterCommit(StockChange change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // no transaction holds a connection, a SYNC change can be awaited at once
+            committed(List.of(change));
+            awaitFlushed();
+            return;
+        }
+        // only the synchronizations of the current transaction are listed, a suspended outer one gets its own
+        TransactionChanges changes = TransactionSynchronizationManager.getSynchronizations().stream()
+                .filter(synchronization -> synchronization instanceof TransactionChanges transactionChanges
+                        && transactionChanges.ledger() == this)
+                .map(TransactionChanges.class::cast)
+                .findFirst()
+                .orElseGet(() -> {
+                    TransactionChanges created = new TransactionChanges();
+                    TransactionSynchronizationManager.registerSynchronization(created);
+                    return created;
+                });
+        changes.add(change);
+    }
+
+    private void committed(List<StockChange> changes) {
+        List<CompletableFuture<Void>> flushed = unflushed.get();
+        // a thread that never awaits only keeps the changes not flushed yet
+        flushed.removeIf(CompletableFuture::isDone);
+        for (StockChange change : changes) {
+            if (change.delta() > 0) {
+                counters.get(change.bookId()).deposit(change.delta());
+            }
+            StockDelta stockDelta = new StockDelta(change.bookId(), change.delta(), new CompletableFuture<>());
+            pending.add(stockDelta);
+            if (durability == LedgerDurability.SYNC) {
+                flushed.add(stockDelta.flushed());
+            }
+            if (pendingCount.incrementAndGet() == flushOperations) {
+                flusher.execute(this::flush);
+            }
+        }
+    }
+
+    /**
+     * SYNC durability: blocks until the stock changes committed on this thread are written to book.stock,
+     * or sync-timeout has passed. Must be called after the transaction has completed, not inside it.
+     */
+    public void awaitFlushed() {
+        List<CompletableFuture<Void>> flushed = unflushed.get();
+        if (flushed.isEmpty()) {
+            return;
+        }
+        unflushed.remove();
+        // the order is committed at this point, a slow flush only delays the response.
+        // A failed flush puts its batch back behind newer changes, so all the futures are awaited, not the last one
+        try {
+            CompletableFuture.allOf(flushed.toArray(CompletableFuture[]::new)).get(syncTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            log.warn("Stock changes of {} books not flushed within {}", flushed.size(), syncTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush() {
+        try {
+            flushPending();
+        } catch (RuntimeException e) {
+            // never let the exception cancel the scheduled flushes
+            log.error("Stock ledger flush failed, retrying with the next flush", e);
+        }
+    }
+
+    // one batch with one update per book, whatever the number of orders since the last flush
+    private synchronized void flushPending() {
+        List<StockDelta> batch = new ArrayList<>();
+        StockDelta stockDelta;
+        while ((stockDelta = pending.poll()) != null) {
+            batch.add(stockDelta);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        pendingCount.addAndGet(-batch.size());
+        // sorted, the rows are locked in the same order as the conditional updates of the other modes
+        Map<Long, Integer> deltas = new TreeMap<>();
+        batch.forEach(delta -> deltas.merge(delta.bookId(), delta.delta(), Integer::sum));
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(ADD_STOCK_SQL, deltas.entrySet().stream()
+                    .map(entry -> new Object[]{entry.getValue(), entry.getKey()})
+                    .toList()));
+        } catch (RuntimeException e) {
+            // put back for the next flush, the waiting orders keep waiting
+            pending.addAll(batch);
+            pendingCount.addAndGet(batch.size());
+            throw e;
+        }
+        batch.forEach(delta -> delta.flushed().complete(null));
+        eventPublisher.publishEvent(new StockChangedEvent(deltas.keySet()));
+        log.debug("Stock ledger flushed {} changes of {} books", batch.size(), deltas.size());
+    }
+
+    private record StockChange(Long bookId, int delta, Runnable undo) {
+    }
+
+    private record StockDelta(Long bookId, int delta, CompletableFuture<Void> flushed) {
+    }
+
+    // changes made after a savepoint are undone when the transaction rolls back to it, e.g. a failing order of a group commit
+    private final class TransactionChanges implements TransactionSynchronization {
+        private final List<StockChange> changes = new ArrayList<>();
+        private final Map<Object, Integer> savepoints = new IdentityHashMap<>();
+
+        private StockLedger ledger() {
+            return StockLedger.this;
+        }
+
+        private void add(StockChange change) {
+            changes.add(change);
+        }
+
+        @Override
+        public void savepoint(Object savepoint) {
+            savepoints.put(savepoint, changes.size());
+        }
+
+        @Override
+        public void savepointRollback(Object savepoint) {
+            Integer size = savepoints.remove(savepoint);
+            if (size != null) {
+                List<StockChange> rolledBack = changes.subList(size, changes.size());
+                rolledBack.forEach(change -> change.undo().run());
+                rolledBack.clear();
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == STATUS_COMMITTED) {
+                committed(changes);
+            } else {
+                changes.forEach(change -> change.undo().run());
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.bookshop.ledger;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * While the ledger runs, only its flusher writes book.stock, and stock + ordered quantity of a book
+ * (its supply) doesn't change: an order moves quantity from one to the other in its own transaction.
+ * The supply is saved at startup. After a crash the stock column misses the unflushed changes,
+ * but supply - ordered quantity, read from the committed items, is the real stock.
+ */
+@Slf4j
+class StockLedgerRecovery {
+
+    private static final String STOCK_AND_ORDERED_SQL = """
+            select b.id, b.stock, coalesce(sum(i.quantity), 0) as ordered, s.supply
+            from book b
+            left join items i on i.book_id = b.id
+            left join stock_ledger_baseline s on s.book_id = b.id
+            group by b.id, b.stock, s.supply""";
+
+    private static final String FOLD_SHARDS_SQL = """
+            update book set stock = stock + (select sum(s.stock) from book_stock_shard s where s.book_id = book.id),
+                version = version + 1
+            where id in (select book_id from book_stock_shard)""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    StockLedgerRecovery(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    // returns the stock of every book, repaired if the previous run didn't stop cleanly, and marks the ledger running
+    Map<Long, Integer> start() {
+        return transactionTemplate.execute(status -> {
+            boolean clean = jdbcTemplate.queryForList(
+                    "select clean_shutdown from stock_ledger_state where id = 1 for update", Boolean.class)
+                    .stream().findFirst().orElse(true);
+            foldShards();
+            Map<Long, Integer> stock = new HashMap<>();
+            Map<Long, Long> supply = new HashMap<>();
+            jdbcTemplate.query(STOCK_AND_ORDERED_SQL, rs -> {
+                long bookId = rs.getLong("id");
+                long ordered = rs.getLong("ordered");
+                Long baseline = rs.getObject("supply", Long.class);
+                // books without a supply row were never ordered through the ledger, their stock column is up to date
+                int bookStock = clean || baseline == null ? rs.getInt("stock") : (int) (baseline - ordered);
+                stock.put(bookId, bookStock);
+                supply.put(bookId, bookStock + ordered);
+            });
+            if (!clean) {
+                log.warn("Stock ledger was not shut down cleanly, stock of {} books recomputed from the ordered items", stock.size());
+                jdbcTemplate.batchUpdate("update book set stock = ?, version = version + 1 where id = ?",
+                        stock.entrySet().stream().map(entry -> new Object[]{entry.getValue(), entry.getKey()}).toList());
+            }
+            jdbcTemplate.update("delete from stock_ledger_baseline");
+            jdbcTemplate.batchUpdate("insert into stock_ledger_baseline (book_id, supply) values (?, ?)",
+                    supply.entrySet().stream().map(entry -> new Object[]{entry.getKey(), entry.getValue()}).toList());
+            markClean(false);
+            return stock;
+        });
+    }
+
+    // stock split over book_stock_shard rows by an earlier run in another mode goes back to the book rows,
+    // the counters and the supply are only read from book.stock
+    private void foldShards() {
+        int folded = jdbcTemplate.update(FOLD_SHARDS_SQL);
+        if (folded > 0) {
+            jdbcTemplate.update("delete from book_stock_shard");
+            log.info("Stock ledger folded the stock shards of {} books back into the book rows", folded);
+        }
+    }
+
+    // for books created while the ledger runs, returns null if the book doesn't exist
+    Integer addBook(Long bookId) {
+        return transactionTemplate.execute(status -> {
+            Integer stock = jdbcTemplate.queryForList("select stock from book where id = ?", Integer.class, bookId)
+                    .stream().findFirst().orElse(null);
+            if (stock != null) {
+                Long ordered = jdbcTemplate.queryForObject(
+                        "select coalesce(sum(quantity), 0) from items where book_id = ?", Long.class, bookId);
+                jdbcTemplate.update("delete from stock_ledger_baseline where book_id = ?", bookId);
+                jdbcTemplate.update("insert into stock_ledger_baseline (book_id, supply) values (?, ?)", bookId, stock + ordered);
+            }
+            return stock;
+        });
+    }
+
+    void markClean(boolean clean) {
+        if (jdbcTemplate.update("update stock_ledger_state set clean_shutdown = ? where id = 1", clean) == 0) {
+            jdbcTemplate.update("insert into stock_ledger_state (id, clean_shutdown) values (1, ?)", clean);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.bookshop.mapper;
+
+import org.springframework.stereotype.Service;
+import com.bookshop.dto.BookDto;
+import com.bookshop.model.Book;
+
+@Service
+public class BookDtoMapper {
+
+    public BookDto mapBookDto(Book book) {
+        return new BookDto(book.getId(), book.getTitle(), book.getAuthor(), book.getGenre());
+    }
+}
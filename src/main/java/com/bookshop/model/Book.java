@@ -1,10 +1,15 @@
 package com.bookshop.model;
 
 import java.io.Serializable;
+import com.bookshop.recommendation.BookIndexListener;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Version;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
@@ -12,10 +17,12 @@ import lombok.Setter;
 @Getter
 @Setter
 @Entity
+@EntityListeners(BookIndexListener.class)
 @EqualsAndHashCode
 public class Book implements Serializable {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_seq")
+    @SequenceGenerator(name = "book_seq", sequenceName = "book_seq", allocationSize = 50)
     private Long id;
 
     private String title;
@@ -23,6 +30,11 @@ public class Book implements Serializable {
     private int stock; // Current stock quantity
     private String genre;
 
+    // bumped by every stock update, whatever the stock mode, so a stale entity can't overwrite the stock
+    @Version
+    @Column(columnDefinition = "bigint not null default 0")
+    private Long version;
+
     @Override
     public String toString() {
         return "title: " + getTitle() + " author: " + getAuthor() + " genre: " + getGenre() + "stock: " + getStock();
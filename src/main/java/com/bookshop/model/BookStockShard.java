@@ -0,0 +1,38 @@
+package com.bookshop.model;
+
+import java.io.Serializable;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// extra stock counters of a hot book, shard 0 is the stock column of the book itself.
+// Only read and written with plain SQL by ShardedStockService, the entity defines the table
+@Entity
+@Getter
+@Setter
+@IdClass(BookStockShard.Key.class)
+@Table(name = "book_stock_shard")
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookStockShard {
+    @Id
+    private Long bookId;
+    @Id
+    private int shard;
+
+    private int stock;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long bookId;
+        private int shard;
+    }
+}
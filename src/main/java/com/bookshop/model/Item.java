@@ -9,12 +9,13 @@ import lombok.Setter;
 @Entity
 @Getter
 @Setter
-@Table(name = "items")
+@Table(name = "items", indexes = @Index(name = "items_order_idx", columnList = "order_id"))
 @AllArgsConstructor
 @RequiredArgsConstructor
 public class Item {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "items_seq")
+    @SequenceGenerator(name = "items_seq", sequenceName = "items_seq", allocationSize = 50)
     private Long id;
 
     private Long bookId;
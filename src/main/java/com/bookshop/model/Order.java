@@ -13,13 +13,15 @@ import lombok.Setter;
 @Entity
 @Getter
 @Setter
-@Table(name = "orders")
+// serves the keyset pages of a user's order history
+@Table(name = "orders", indexes = @Index(name = "orders_user_date_idx", columnList = "user_id, order_date desc, id desc"))
 @Builder
 @AllArgsConstructor
 @NoArgsConstructor
 public class Order implements Serializable {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orders_seq")
+    @SequenceGenerator(name = "orders_seq", sequenceName = "orders_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne
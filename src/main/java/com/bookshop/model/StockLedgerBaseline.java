@@ -0,0 +1,19 @@
+package com.bookshop.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+
+// stock of a book plus everything ordered of it, captured when the stock ledger starts.
+// Written and read with plain SQL by StockLedgerRecovery, the entity defines the table
+@Getter
+@Setter
+@Entity
+@Table(name = "stock_ledger_baseline")
+public class StockLedgerBaseline {
+    @Id
+    private Long bookId;
+    private long supply;
+}
@@ -0,0 +1,18 @@
+package com.bookshop.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+
+// single row, tells the stock ledger at startup whether the previous run flushed everything before stopping
+@Getter
+@Setter
+@Entity
+@Table(name = "stock_ledger_state")
+public class StockLedgerState {
+    @Id
+    private int id;
+    private boolean cleanShutdown;
+}
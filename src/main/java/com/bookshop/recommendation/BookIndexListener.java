@@ -0,0 +1,29 @@
+package com.bookshop.recommendation;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import com.bookshop.model.Book;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.AllArgsConstructor;
+
+// JPA entity listener created by Hibernate through Spring, keeps the recommendation index in line with saved books.
+// The index is looked up lazily: it depends on BookRepository, which isn't ready while Hibernate creates the listener
+@Component
+@AllArgsConstructor
+public class BookIndexListener {
+
+    private final ObjectProvider<GenreRecommendationIndex> recommendationIndex;
+
+    @PostPersist
+    @PostUpdate
+    public void onSaved(Book book) {
+        recommendationIndex.getObject().update(book);
+    }
+
+    @PostRemove
+    public void onRemoved(Book book) {
+        recommendationIndex.getObject().remove(book.getId());
+    }
+}
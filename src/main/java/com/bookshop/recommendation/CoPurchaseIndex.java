@@ -0,0 +1,142 @@
+package com.bookshop.recommendation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.sql.DataSource;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.bookshop.event.OrderChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * "Customers also bought" model: for every book, how many orders contained it together with each other book.
+ * Counts are kept in primitive long -> int maps, one per book, so a million orders don't turn into
+ * millions of boxed keys. Built from the items table at startup and updated as orders are committed.
+ */
+@Slf4j
+@Component
+public class CoPurchaseIndex {
+
+    private static final String ORDER_BOOKS_SQL = "select order_id, book_id from items where order_id is not null order by order_id";
+    private static final int FETCH_SIZE = 10_000;
+
+    private final Map<Long, LongIntHashMap> coPurchases = new ConcurrentHashMap<>();
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public CoPurchaseIndex(DataSource dataSource, TransactionTemplate transactionTemplate) {
+        // PostgreSQL only streams the result with a fetch size inside a transaction
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        List<Long> orderBooks = new ArrayList<>();
+        long[] currentOrderId = {-1};
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(ORDER_BOOKS_SQL, resultSet -> {
+            long orderId = resultSet.getLong("order_id");
+            if (orderId != currentOrderId[0]) {
+                add(orderBooks);
+                orderBooks.clear();
+                currentOrderId[0] = orderId;
+            }
+            orderBooks.add(resultSet.getLong("book_id"));
+        }));
+        add(orderBooks);
+        log.info("Co-purchase index built for {} books, about {} KB", coPurchases.size(), footprintBytes() / 1024);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOrderChanged(OrderChangedEvent event) {
+        remove(event.previousBookIds());
+        add(event.currentBookIds());
+    }
+
+    public void add(Collection<Long> orderBooks) {
+        update(orderBooks, 1);
+    }
+
+    public void remove(Collection<Long> orderBooks) {
+        update(orderBooks, -1);
+    }
+
+    /**
+     * Books most often bought together with the basket, best first, books of the basket are left out.
+     */
+    public List<Long> topCoPurchased(Collection<Long> basket, int limit) {
+        LongIntHashMap scores = new LongIntHashMap();
+        for (Long bookId : basket) {
+            LongIntHashMap counts = coPurchases.get(bookId);
+            if (counts != null) {
+                synchronized (counts) {
+                    counts.forEach(scores::addTo);
+                }
+            }
+        }
+        for (Long bookId : basket) {
+            scores.addTo(bookId, -scores.get(bookId));
+        }
+        return top(scores, limit);
+    }
+
+    public long footprintBytes() {
+        long bytes = 0;
+        for (LongIntHashMap counts : coPurchases.values()) {
+            synchronized (counts) {
+                bytes += counts.footprintBytes();
+            }
+        }
+        return bytes;
+    }
+
+    private void update(Collection<Long> orderBooks, int delta) {
+        long[] books = orderBooks.stream().mapToLong(Long::longValue).distinct().toArray();
+        for (long book : books) {
+            LongIntHashMap counts = coPurchases.computeIfAbsent(book, id -> new LongIntHashMap());
+            synchronized (counts) {
+                for (long otherBook : books) {
+                    if (otherBook != book) {
+                        counts.addTo(otherBook, delta);
+                    }
+                }
+            }
+        }
+    }
+
+    // partial selection sort over primitive arrays, limit is a handful of books
+    private static List<Long> top(LongIntHashMap scores, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        long[] bestBooks = new long[limit];
+        int[] bestScores = new int[limit];
+        int[] found = {0};
+        scores.forEach((book, score) -> {
+            if (found[0] < limit || score > bestScores[found[0] - 1]) {
+                int position = Math.min(found[0], limit - 1);
+                while (position > 0 && bestScores[position - 1] < score) {
+                    bestBooks[position] = bestBooks[position - 1];
+                    bestScores[position] = bestScores[position - 1];
+                    position--;
+                }
+                bestBooks[position] = book;
+                bestScores[position] = score;
+                found[0] = Math.min(found[0] + 1, limit);
+            }
+        });
+        List<Long> result = new ArrayList<>(found[0]);
+        for (int i = 0; i < found[0]; i++) {
+            result.add(bestBooks[i]);
+        }
+        return result;
+    }
+}
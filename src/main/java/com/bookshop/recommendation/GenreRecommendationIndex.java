@@ -0,0 +1,107 @@
+package com.bookshop.recommendation;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import com.bookshop.dto.BookDto;
+import com.bookshop.event.StockChangedEvent;
+import com.bookshop.mapper.BookDtoMapper;
+import com.bookshop.model.Book;
+import com.bookshop.repository.BookRepository;
+import com.bookshop.service.ShardedStockService;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory genre -> in-stock books index sorted by title, so recommendations never go to the database.
+ * Built once the application is ready, then kept up to date by book entity events and stock changes of orders.
+ */
+@Slf4j
+@Component
+@AllArgsConstructor
+public class GenreRecommendationIndex {
+
+    private static final Comparator<BookDto> BY_TITLE = Comparator
+            .comparing(BookDto::title, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(BookDto::id);
+
+    private final BookRepository bookRepository;
+    private final BookDtoMapper bookDtoMapper;
+    private final ExecutorService executorService;
+    private final ShardedStockService shardedStockService;
+    // every known book, in stock or not, to find the genre of an ordered book
+    private final Map<Long, BookDto> books = new ConcurrentHashMap<>();
+    private final Map<String, NavigableSet<BookDto>> inStockBooksByGenre = new ConcurrentHashMap<>();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        bookRepository.findAll().forEach(this::update);
+        log.info("Recommendation index built for {} books in {} genres", books.size(), inStockBooksByGenre.size());
+    }
+
+    // stock updates are single SQL statements, the new stock is read back off the order thread once they are committed
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(StockChangedEvent event) {
+        executorService.execute(() -> bookRepository.findAllById(event.bookIds()).forEach(this::update));
+    }
+
+    public synchronized void update(Book book) {
+        BookDto bookDto = bookDtoMapper.mapBookDto(book);
+        removeFromGenre(books.put(book.getId(), bookDto));
+        if (book.getGenre() != null && shardedStockService.totalStock(book) > 0) {
+            inStockBooksByGenre.computeIfAbsent(book.getGenre(), genre -> new ConcurrentSkipListSet<>(BY_TITLE))
+                    .add(bookDto);
+        }
+    }
+
+    public synchronized void remove(Long bookId) {
+        removeFromGenre(books.remove(bookId));
+    }
+
+    // first books of the genre by title that are in stock, reads don't lock
+    public List<BookDto> topInStock(String genre, int limit, Set<Long> excludedBookIds) {
+        if (genre == null) {
+            return Collections.emptyList();
+        }
+        return inStockBooksByGenre.getOrDefault(genre, Collections.emptyNavigableSet())
+                .stream()
+                .filter(book -> !excludedBookIds.contains(book.id()))
+                .limit(limit)
+                .toList();
+    }
+
+    // up to limit books for every genre of the basket, books already in the basket are not recommended
+    public List<BookDto> recommend(Collection<Long> bookIds, int limit) {
+        Set<Long> basket = Set.copyOf(bookIds);
+        Set<BookDto> recommendations = new LinkedHashSet<>();
+        bookIds.stream()
+                .map(books::get)
+                .filter(Objects::nonNull)
+                .map(BookDto::genre)
+                .distinct()
+                .forEach(genre -> recommendations.addAll(topInStock(genre, limit, basket)));
+        return List.copyOf(recommendations);
+    }
+
+    private void removeFromGenre(BookDto bookDto) {
+        if (bookDto != null && bookDto.genre() != null) {
+            NavigableSet<BookDto> genreBooks = inStockBooksByGenre.get(bookDto.genre());
+            if (genreBooks != null) {
+                genreBooks.remove(bookDto);
+            }
+        }
+    }
+}
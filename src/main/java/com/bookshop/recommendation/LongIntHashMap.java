@@ -0,0 +1,137 @@
+package com.bookshop.recommendation;
+
+/**
+ * Open addressing long -> int hash map with linear probing, keys and values live in two primitive arrays,
+ * so an entry costs 12 bytes (24 at the 0.5 load factor) instead of a boxed Long, a boxed Integer and a map node.
+ * Key 0 marks a free slot and can't be stored, book ids start from 1. Not thread safe.
+ */
+public class LongIntHashMap {
+
+    private static final long FREE = 0L;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    public LongIntHashMap() {
+        this(4);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1);
+    }
+
+    public int get(long key) {
+        checkKey(key);
+        for (int slot = slot(key); keys[slot] != FREE; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return 0;
+    }
+
+    // adds delta to the value of the key (missing keys count as 0) and returns the new value,
+    // a key whose value drops to 0 is removed, so counters that go back to zero don't keep their slot
+    public int addTo(long key, int delta) {
+        checkKey(key);
+        int slot = slot(key);
+        for (; keys[slot] != FREE; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                int value = values[slot] + delta;
+                if (value == 0) {
+                    removeAt(slot);
+                } else {
+                    values[slot] = value;
+                }
+                return value;
+            }
+        }
+        if (delta != 0) {
+            keys[slot] = key;
+            values[slot] = delta;
+            // keep at least half of the slots free so the probe sequences stay short
+            if (++size > keys.length / 2) {
+                resize(keys.length << 1);
+            }
+        }
+        return delta;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(LongIntConsumer consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != FREE) {
+                consumer.accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    // approximate heap footprint of the arrays, used to size the co-purchase index
+    public long footprintBytes() {
+        return (long) keys.length * (Long.BYTES + Integer.BYTES);
+    }
+
+    // backward shift deletion: entries after the freed slot are moved back when the slot is on their probe path,
+    // so no tombstones are needed and lookups stop at the first free slot
+    private void removeAt(int slot) {
+        size--;
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+            int probeDistance = (next - slot(keys[next])) & mask;
+            if (probeDistance >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = FREE;
+        values[gap] = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        // fibonacci hashing spreads sequential ids over the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private static void checkKey(long key) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("key 0 is reserved");
+        }
+    }
+
+    @FunctionalInterface
+    public interface LongIntConsumer {
+        void accept(long key, int value);
+    }
+}
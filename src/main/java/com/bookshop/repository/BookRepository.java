@@ -1,11 +1,46 @@
 package com.bookshop.repository;
 
+import static com.bookshop.config.CacheConfig.BOOK_CATALOG_CACHE;
+
 import java.util.List;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import com.bookshop.model.Book;
 
 @Repository
 public interface BookRepository extends JpaRepository<Book, Long> {
-    List<Book> findTop3ByGenreOrderByTitleAsc(String genre);
+    // writes of the catalog fields evict the cached entry, the stock updates below don't touch the catalog
+    @Override
+    @CacheEvict(cacheNames = BOOK_CATALOG_CACHE, key = "#result.id")
+    <S extends Book> S save(S book);
+
+    @Override
+    @CacheEvict(cacheNames = BOOK_CATALOG_CACHE, allEntries = true)
+    <S extends Book> List<S> saveAll(Iterable<S> books);
+
+    @Override
+    @CacheEvict(cacheNames = BOOK_CATALOG_CACHE, key = "#p0")
+    void deleteById(Long id);
+
+    @Override
+    @CacheEvict(cacheNames = BOOK_CATALOG_CACHE, key = "#p0.id")
+    void delete(Book book);
+
+    // the check and the decrement happen in one statement, so the row lock taken by the database
+    // replaces the JVM lock and the stock can't go negative even with several app instances running
+    // returns the number of affected rows: 0 means the book is missing or has not enough stock
+    @Transactional
+    @Modifying
+    @Query("update Book b set b.stock = b.stock - :quantity, b.version = b.version + 1 where b.id = :id and b.stock >= :quantity")
+    int decrementStock(@Param("id") Long id, @Param("quantity") int quantity);
+
+    @Transactional
+    @Modifying
+    @Query("update Book b set b.stock = b.stock + :quantity, b.version = b.version + 1 where b.id = :id")
+    int incrementStock(@Param("id") Long id, @Param("quantity") int quantity);
 }
@@ -0,0 +1,153 @@
+package com.bookshop.repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import com.bookshop.dto.ItemDto;
+import com.bookshop.dto.OrderDto;
+
+/**
+ * Read side of the orders: orders are read as flat rows, one per item with the book title, with a single statement
+ * and mapped straight to OrderDto. No entity is loaded, so there is no persistence context, no dirty checking and
+ * neither the items nor the user and its roles are fetched one by one.
+ * History pages are cut on (order_date, id), newest first, which the orders index serves without an offset scan.
+ */
+@Repository
+public class OrderHistoryRepository {
+
+    private static final String ORDER_ROWS = """
+            select o.id as order_id, o.order_date, u.name as user_name,
+                   i.id as item_id, i.book_id, i.quantity, b.title
+            from (%s) o
+            join users u on u.id = o.user_id
+            left join items i on i.order_id = o.id
+            left join book b on b.id = i.book_id
+            order by o.order_date desc, o.id desc, i.id""";
+    private static final String ORDER = ORDER_ROWS.formatted("select id, order_date, user_id from orders where id = ?");
+    private static final String FIRST_PAGE = ORDER_ROWS.formatted("""
+            select id, order_date, user_id from orders
+            where user_id = ?
+            order by order_date desc, id desc
+            limit ?""");
+    private static final String NEXT_PAGE = ORDER_ROWS.formatted("""
+            select id, order_date, user_id from orders
+            where user_id = ? and (order_date, id) < (?, ?)
+            order by order_date desc, id desc
+            limit ?""");
+    private static final String ALL_ORDERS = ORDER_ROWS.formatted("select id, order_date, user_id from orders where user_id = ?");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate exportJdbcTemplate;
+
+    public OrderHistoryRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        // rows are fetched from a server side cursor in chunks instead of all at once,
+        // which the PostgreSQL driver only does inside a transaction
+        this.exportJdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.exportJdbcTemplate.setFetchSize(500);
+    }
+
+    public Optional<OrderDto> findById(Long orderId) {
+        return jdbcTemplate.query(ORDER, OrderHistoryRepository::groupOrders, orderId).stream().findFirst();
+    }
+
+    public List<OrderDto> findFirstPage(Long userId, int size) {
+        return jdbcTemplate.query(FIRST_PAGE, OrderHistoryRepository::groupOrders, userId, size);
+    }
+
+    // orders older than the last one of the previous page
+    public List<OrderDto> findNextPage(Long userId, LocalDateTime afterOrderDate, Long afterId, int size) {
+        return jdbcTemplate.query(NEXT_PAGE, OrderHistoryRepository::groupOrders, userId, afterOrderDate, afterId, size);
+    }
+
+    // must be consumed and closed inside a transaction
+    public Stream<OrderDto> streamAll(Long userId) {
+        Stream<OrderRow> rows = exportJdbcTemplate.queryForStream(ALL_ORDERS, OrderHistoryRepository::mapRow, userId);
+        Iterator<OrderDto> orders = new GroupingIterator(rows.iterator());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(orders, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(rows::close);
+    }
+
+    private static List<OrderDto> groupOrders(ResultSet rs) throws SQLException {
+        Map<Long, OrderDto> orders = new LinkedHashMap<>();
+        while (rs.next()) {
+            OrderRow row = mapRow(rs, rs.getRow());
+            row.addTo(orders.computeIfAbsent(row.orderId(), orderId -> row.newOrder()));
+        }
+        return new ArrayList<>(orders.values());
+    }
+
+    private static OrderRow mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Long itemId = rs.getObject("item_id", Long.class);
+        return new OrderRow(
+                rs.getLong("order_id"),
+                rs.getObject("order_date", LocalDateTime.class),
+                rs.getString("user_name"),
+                itemId == null ? null : ItemDto.builder()
+                        .id(itemId)
+                        .bookId(rs.getLong("book_id"))
+                        .quantity(rs.getInt("quantity"))
+                        .title(rs.getString("title"))
+                        .build());
+    }
+
+    private record OrderRow(Long orderId, LocalDateTime orderDate, String userName, ItemDto item) {
+        OrderDto newOrder() {
+            return OrderDto.builder()
+                    .id(orderId)
+                    .orderDate(orderDate)
+                    .userName(userName)
+                    .items(new ArrayList<>())
+                    .build();
+        }
+
+        void addTo(OrderDto order) {
+            if (item != null) {
+                order.getItems().add(item);
+            }
+        }
+    }
+
+    // rows of an order are adjacent, an order is complete when a row of the next one shows up
+    private static final class GroupingIterator implements Iterator<OrderDto> {
+        private final Iterator<OrderRow> rows;
+        private OrderRow nextRow;
+
+        private GroupingIterator(Iterator<OrderRow> rows) {
+            this.rows = rows;
+            this.nextRow = rows.hasNext() ? rows.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextRow != null;
+        }
+
+        @Override
+        public OrderDto next() {
+            if (nextRow == null) {
+                throw new NoSuchElementException();
+            }
+            OrderDto order = nextRow.newOrder();
+            Long orderId = nextRow.orderId();
+            while (nextRow != null && nextRow.orderId().equals(orderId)) {
+                nextRow.addTo(order);
+                nextRow = rows.hasNext() ? rows.next() : null;
+            }
+            return order;
+        }
+    }
+}
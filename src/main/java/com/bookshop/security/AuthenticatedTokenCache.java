@@ -0,0 +1,85 @@
+package com.bookshop.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+/**
+ * Principals of already validated tokens, so an authenticated request costs neither a JWT parse nor a user query.
+ * Entries are keyed by the SHA-256 of the token (raw bearer tokens are not kept in memory) and expire
+ * when the token does, or after max-ttl at the latest, so role changes are picked up eventually.
+ */
+@Component
+public class AuthenticatedTokenCache {
+
+    private final Cache<String, CachedPrincipal> principals;
+    private final Duration maxTtl;
+
+    public AuthenticatedTokenCache(@Value("${bookshop.security.token-cache.max-size:10000}") long maxSize,
+                                   @Value("${bookshop.security.token-cache.max-ttl:10m}") Duration maxTtl) {
+        this.maxTtl = maxTtl;
+        this.principals = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, CachedPrincipal>() {
+                    @Override
+                    public long expireAfterCreate(String key, CachedPrincipal principal, long currentTime) {
+                        return Math.max(0, Duration.between(Instant.now(), principal.expiresAt()).toNanos());
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, CachedPrincipal principal, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(key, principal, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, CachedPrincipal principal, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    // loader parses the token and loads the user, it's only called on a miss
+    public UserDetails get(String token, Function<String, AuthenticatedToken> loader) {
+        return principals.get(hash(token), key -> {
+            AuthenticatedToken authenticated = loader.apply(token);
+            Instant latestExpiry = Instant.now().plus(maxTtl);
+            Instant expiresAt = authenticated.expiresAt().isBefore(latestExpiry) ? authenticated.expiresAt() : latestExpiry;
+            // the password hash is not needed once the token is validated
+            UserDetails userDetails = authenticated.userDetails();
+            return new CachedPrincipal(new User(userDetails.getUsername(), "", userDetails.getAuthorities()), expiresAt);
+        }).userDetails();
+    }
+
+    public void invalidateAll() {
+        principals.invalidateAll();
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public record AuthenticatedToken(UserDetails userDetails, Instant expiresAt) {
+    }
+
+    private record CachedPrincipal(UserDetails userDetails, Instant expiresAt) {
+    }
+}
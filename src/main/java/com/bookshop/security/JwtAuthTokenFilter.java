@@ -7,6 +7,7 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -19,17 +20,16 @@ public class JwtAuthTokenFilter extends OncePerRequestFilter {
 
     private final JwtGenerator generator;
     private final CustomUserDetailsService userDetailsService;
+    private final AuthenticatedTokenCache tokenCache;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request,
                                     HttpServletResponse response,
                                     FilterChain filterChain) throws ServletException, IOException {
 
-        System.out.println("start do filter");
         String token = getTokenFromRequest(request);
-        if (token != null && generator.validateToken(token)) {
-            String username = generator.getUsernameFromJWT(token);
-            UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+        if (token != null) {
+            UserDetails userDetails = tokenCache.get(token, this::authenticate);
             UsernamePasswordAuthenticationToken authenticationToken = new UsernamePasswordAuthenticationToken(
                     userDetails,
                     null,
@@ -40,9 +40,15 @@ public class JwtAuthTokenFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
     }
 
+    // only runs for tokens that are not cached yet: one parse validates the token and gives the user name
+    private AuthenticatedTokenCache.AuthenticatedToken authenticate(String token) {
+        Claims claims = generator.parseClaims(token);
+        UserDetails userDetails = userDetailsService.loadUserByUsername(claims.getSubject());
+        return new AuthenticatedTokenCache.AuthenticatedToken(userDetails, claims.getExpiration().toInstant());
+    }
+
     private String getTokenFromRequest(HttpServletRequest request) {
         String bearerToken = request.getHeader("Authorization");
-        System.out.println("bearerToken----------------------"+ bearerToken);
         if (bearerToken != null && bearerToken.startsWith("Bearer ")) {
             return bearerToken.substring(7);
         } else {
@@ -6,6 +6,7 @@ import org.springframework.security.authentication.AuthenticationCredentialsNotF
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Component;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
@@ -14,6 +15,14 @@ import lombok.extern.slf4j.Slf4j;
 @Component
 public class JwtGenerator {
 
+    private static final String JWT_SECRET = "secretlongandsecurestringwithdifferentcharacters1234567890";
+
+    // the key and the parser are immutable and thread safe, they are built once instead of on every request
+    private final Key signingKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(JWT_SECRET));
+    private final JwtParser parser = Jwts.parserBuilder()
+            .setSigningKey(signingKey)
+            .build();
+
     public String generateToken(Authentication authentication) {
         String userName = authentication.getName();
         Date currentDate = new Date();
@@ -22,36 +31,25 @@ public class JwtGenerator {
         return Jwts.builder().setSubject(userName)
                 .setIssuedAt(currentDate)
                 .setExpiration(expirationDate)
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
 
-    private Key getSigningKey() {
-        String jwtSecret = "secretlongandsecurestringwithdifferentcharacters1234567890";
-        byte[] keyBytes = Decoders.BASE64.decode(jwtSecret);
-        return Keys.hmacShaKeyFor(keyBytes);
+    // validates the signature and the expiration and returns the claims, so the token is parsed only once
+    public Claims parseClaims(String token) {
+        try {
+            return parser.parseClaimsJws(token).getBody();
+        } catch (Exception ex) {
+            throw new AuthenticationCredentialsNotFoundException("JWT was exprired or incorrect", ex);
+        }
     }
 
     public String getUsernameFromJWT(String token) {
-        System.out.println( "getUsernameFromJWT----------------------"+ token);
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-        System.out.println("claims----------------------"+ claims.getSubject());
-        return claims.getSubject();
+        return parseClaims(token).getSubject();
     }
 
     public boolean validateToken(String token) {
-        try {
-            Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(token);
-            return true;
-        } catch (Exception ex) {
-            throw new AuthenticationCredentialsNotFoundException("JWT was exprired or incorrect", ex.fillInStackTrace());
-        }
+        parseClaims(token);
+        return true;
     }
 }
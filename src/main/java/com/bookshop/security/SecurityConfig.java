@@ -1,5 +1,6 @@
 package com.bookshop.security;
 
+import jakarta.servlet.DispatcherType;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -21,6 +22,7 @@ import lombok.AllArgsConstructor;
 public class SecurityConfig {
     private final JwtGenerator jwtGenerator;
     private final CustomUserDetailsService userDetailsService;
+    private final AuthenticatedTokenCache tokenCache;
 
     @Bean
     public AuthenticationManager authenticationManager(AuthenticationConfiguration authenticationConfiguration) throws Exception {
@@ -40,6 +42,10 @@ public class SecurityConfig {
                 .authorizeHttpRequests(auth ->
                         auth
                                 .requestMatchers("/auth/*").permitAll()
+                                // scraped by Prometheus and probed by the orchestrator without a token
+                                .requestMatchers("/actuator/health", "/actuator/prometheus").permitAll()
+                                // the request was authenticated before it went async, the JWT filter doesn't run on the async dispatch
+                                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                                 .anyRequest().authenticated() // All other requests require authentication
                 )
                 .httpBasic(Customizer.withDefaults()); // Enable HTTP Basic authentication
@@ -49,6 +55,6 @@ public class SecurityConfig {
 
     @Bean
     public JwtAuthTokenFilter jwtAuthTokenFilter() {
-        return new JwtAuthTokenFilter(jwtGenerator, userDetailsService);
+        return new JwtAuthTokenFilter(jwtGenerator, userDetailsService, tokenCache);
     }
 }
@@ -0,0 +1,46 @@
+package com.bookshop.service;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.springframework.context.ApplicationEventPublisher;
+import com.bookshop.dto.BookDto;
+import com.bookshop.event.StockChangedEvent;
+import com.bookshop.exception.InsufficientStockException;
+import com.bookshop.exception.ProductNotFoundException;
+
+// catalog lookups and events shared by the stock reservation modes
+abstract class AbstractStockReservationService implements StockReservationService {
+
+    private final BookCatalogService bookCatalogService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    protected AbstractStockReservationService(BookCatalogService bookCatalogService,
+                                              ApplicationEventPublisher eventPublisher) {
+        this.bookCatalogService = bookCatalogService;
+        this.eventPublisher = eventPublisher;
+    }
+
+    protected void stockChanged(Collection<Long> bookIds) {
+        eventPublisher.publishEvent(new StockChangedEvent(bookIds));
+    }
+
+    protected InsufficientStockException insufficientStock(Long bookId) {
+        return new InsufficientStockException("Insufficient stock for book: " + findBook(bookId).title());
+    }
+
+    // one catalog lookup for a whole basket, a book missing from the catalog fails it
+    protected void requireBooks(Collection<Long> bookIds) {
+        Set<Long> foundIds = bookCatalogService.findAllById(bookIds).stream()
+                .map(BookDto::id)
+                .collect(Collectors.toSet());
+        if (!foundIds.containsAll(bookIds)) {
+            throw new ProductNotFoundException("Book with requested id not found");
+        }
+    }
+
+    protected BookDto findBook(Long bookId) {
+        return bookCatalogService.findById(bookId)
+                .orElseThrow(() -> new ProductNotFoundException("Book with requested id not found"));
+    }
+}
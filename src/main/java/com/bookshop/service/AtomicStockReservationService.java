@@ -0,0 +1,72 @@
+package com.bookshop.service;
+
+import java.util.Comparator;
+import java.util.List;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import com.bookshop.model.Item;
+import com.bookshop.repository.BookRepository;
+import lombok.extern.slf4j.Slf4j;
+
+// default mode: every reservation is a conditional decrement, the row lock of the update is the only lock
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "bookshop.stock.mode", havingValue = "atomic", matchIfMissing = true)
+public class AtomicStockReservationService extends AbstractStockReservationService {
+
+    static final String DECREMENT_STOCK_SQL =
+            "update book set stock = stock - ?, version = version + 1 where id = ? and stock >= ?";
+
+    private final BookRepository bookRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    public AtomicStockReservationService(BookCatalogService bookCatalogService,
+                                         BookRepository bookRepository,
+                                         JdbcTemplate jdbcTemplate,
+                                         ApplicationEventPublisher eventPublisher) {
+        super(bookCatalogService, eventPublisher);
+        this.bookRepository = bookRepository;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Reserves stock for a whole basket with a single JDBC batch of conditional decrements.
+     * Book existence and titles come from the catalog cache, the stock is only checked by the update itself.
+     */
+    @Override
+    public void reserve(List<Item> items) {
+        requireBooks(items.stream().map(Item::getBookId).toList());
+
+        // rows are updated in book id order, so two baskets sharing books can't deadlock in the database
+        List<Item> sortedItems = items.stream().sorted(Comparator.comparing(Item::getBookId)).toList();
+        int[] updatedRows = jdbcTemplate.batchUpdate(DECREMENT_STOCK_SQL, sortedItems.stream()
+                .map(item -> new Object[]{item.getQuantity(), item.getBookId(), item.getQuantity()})
+                .toList());
+
+        for (int i = 0; i < updatedRows.length; i++) {
+            // the exception rolls back the decrements already applied by the batch
+            if (updatedRows[i] == 0) {
+                throw insufficientStock(sortedItems.get(i).getBookId());
+            }
+        }
+        log.debug("Stock reserved for {} books with a single batch", sortedItems.size());
+        stockChanged(sortedItems.stream().map(Item::getBookId).toList());
+    }
+
+    @Override
+    public void reserve(Long bookId, int quantity) {
+        if (bookRepository.decrementStock(bookId, quantity) == 0) {
+            // the catalog is only consulted on the failure path, to tell a missing book from a sold out one
+            throw insufficientStock(bookId);
+        }
+        stockChanged(List.of(bookId));
+    }
+
+    @Override
+    public void release(Long bookId, int quantity) {
+        bookRepository.incrementStock(bookId, quantity);
+        stockChanged(List.of(bookId));
+    }
+}
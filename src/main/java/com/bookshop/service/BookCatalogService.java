@@ -0,0 +1,59 @@
+package com.bookshop.service;
+
+import static com.bookshop.config.CacheConfig.BOOK_CATALOG_CACHE;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Service;
+import com.bookshop.dto.BookDto;
+import com.bookshop.mapper.BookDtoMapper;
+import com.bookshop.repository.BookRepository;
+import lombok.AllArgsConstructor;
+
+@Service
+@AllArgsConstructor
+public class BookCatalogService {
+
+    private final BookRepository bookRepository;
+    private final BookDtoMapper bookDtoMapper;
+    private final CacheManager cacheManager;
+
+    // read-through: the repository is only queried on a cache miss, unknown ids are cached as well.
+    // BookRepository evicts the entry when a book is saved or deleted
+    @Cacheable(cacheNames = BOOK_CATALOG_CACHE)
+    public Optional<BookDto> findById(Long id) {
+        return bookRepository.findById(id).map(bookDtoMapper::mapBookDto);
+    }
+
+    // same cache entries as findById, all the misses are loaded with a single query.
+    // Books come back in the order of the ids, unknown ids are left out
+    public List<BookDto> findAllById(Collection<Long> ids) {
+        Cache cache = cacheManager.getCache(BOOK_CATALOG_CACHE);
+        Map<Long, BookDto> books = new HashMap<>();
+        List<Long> misses = new ArrayList<>();
+        for (Long id : ids) {
+            Cache.ValueWrapper cached = cache == null ? null : cache.get(id);
+            if (cached == null) {
+                misses.add(id);
+            } else if (cached.get() instanceof BookDto book) {
+                books.put(id, book);
+            }
+        }
+        if (!misses.isEmpty()) {
+            bookRepository.findAllById(misses).forEach(book -> books.put(book.getId(), bookDtoMapper.mapBookDto(book)));
+            if (cache != null) {
+                // null is what @Cacheable stores for an empty Optional
+                misses.forEach(id -> cache.put(id, books.get(id)));
+            }
+        }
+        return ids.stream().map(books::get).filter(Objects::nonNull).toList();
+    }
+}
@@ -0,0 +1,66 @@
+package com.bookshop.service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import com.bookshop.concurrency.StripedLock;
+import com.bookshop.exception.LockAcquisitionTimeoutException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@Service
+public class BookLockService {
+
+    private static final String LOCK_WAIT_TIMER = "bookshop.order.lock.wait";
+
+    private final StripedLock bookLocks;
+    private final MeterRegistry meterRegistry;
+    private final Duration lockTimeout;
+
+    public BookLockService(StripedLock bookLocks,
+                           MeterRegistry meterRegistry,
+                           @Value("${bookshop.order.lock-timeout:2s}") Duration lockTimeout) {
+        this.bookLocks = bookLocks;
+        this.meterRegistry = meterRegistry;
+        this.lockTimeout = lockTimeout;
+    }
+
+    /**
+     * Locks all books of an order, in a fixed order and within lock-timeout, and keeps them locked until
+     * the current transaction completes, so concurrent updates of overlapping orders queue up instead of
+     * interleaving their row updates. Must be called inside a transaction.
+     */
+    public void lockUntilCompletion(Collection<Long> bookIds) {
+        StripedLock.Locked locked;
+        try {
+            locked = bookLocks.tryLockAll(bookIds, lockTimeout.toNanos(), TimeUnit.NANOSECONDS, this::recordWait)
+                    .orElseThrow(() -> new LockAcquisitionTimeoutException(
+                            "Books of the order are being updated by another request, please retry"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LockAcquisitionTimeoutException("Interrupted while waiting for the books of the order");
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                locked.close();
+            }
+        });
+    }
+
+    // tagged per book, the histogram shows which books are contended
+    private void recordWait(Long bookId, long waitNanos) {
+        Timer.builder(LOCK_WAIT_TIMER)
+                .description("Time spent waiting for a book lock in order updates")
+                .tag("book", String.valueOf(bookId))
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+}
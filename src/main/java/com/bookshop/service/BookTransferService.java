@@ -1,26 +1,25 @@
 package com.bookshop.service;
 
 import com.bookshop.dto.BookOrderRequest;
+import com.bookshop.exception.InsufficientStockException;
+import com.bookshop.exception.ProductNotFoundException;
 import com.bookshop.model.Book;
 import com.bookshop.model.Item;
 import com.bookshop.model.Order;
 import com.bookshop.model.User;
 import com.bookshop.repository.BookRepository;
-import com.bookshop.repository.ItemRepository;
 import com.bookshop.repository.OrderRepository;
 import com.bookshop.repository.UserRepository;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 
 @Service
@@ -31,69 +30,44 @@ public class BookTransferService {
     private final UserRepository useRepository;
     private final BookRepository bookRepository;
     private final OrderRepository orderRepository;
-    // Thread pool for processing book orders
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
-    // Lock map to manage locks per book
-    private final ConcurrentHashMap<Long, Lock> bookLocks = new ConcurrentHashMap<>();
-
+    private final StockReservationService stockReservationService;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardedStockService shardedStockService;
 
     public void transferBooks(BookOrderRequest request) {
-        Order parentOrder = new Order();
         User user = useRepository.findById(request.getUserId()).orElseThrow();
-        parentOrder.setUser(user);
-        parentOrder.setOrderDate(LocalDateTime.now());
+        List<Item> orderItems = OrderService.normaliseOrderedItems(request.getOrderItems());
 
-        List<Item> orderItems = new ArrayList<>();
+        // all books are pre-fetched with one query and checked before anything is written
+        Map<Long, Book> books = bookRepository.findAllById(orderItems.stream().map(Item::getBookId).toList()).stream()
+                .collect(Collectors.toMap(Book::getId, Function.identity()));
+        orderItems.forEach(item -> checkStock(item, books.get(item.getBookId())));
 
-        try {
-            for (Item item : request.getOrderItems()) {
-                log.info("Order sent to execute service");
-                executorService.execute(() -> processOrderItem(item, parentOrder, orderItems));
-            }
-            parentOrder.setItems(orderItems);
-            orderRepository.save(parentOrder);
-            log.info("order placed successfully with ID: {}", parentOrder.getId());
-        } finally {
-            for (Item item : request.getOrderItems()) {
-                bookLocks.remove(item.getBookId());
-            }
-            // The ExecutorService will not shut down immediately, but it will no longer accept new tasks,
-            // and once all threads have finished current tasks, the ExecutorService shuts down.
-            // All tasks submitted to the ExecutorService before shutdown() is called, are executed.
-            executorService.shutdown();
-        }
+        // the stock batch and the order insert commit or roll back together,
+        // a book sold out since the check fails the whole order and leaves no stock decremented
+        Order parentOrder = transactionTemplate.execute(status -> {
+            stockReservationService.reserve(orderItems);
+            return orderRepository.save(newOrder(user, orderItems));
+        });
+        stockReservationService.awaitCommittedChanges();
+        log.debug("order placed successfully with ID: {}", parentOrder.getId());
     }
 
-    private void processOrderItem(Item item, Order parentOrder, List<Item> orderItems) {
-        // Lock per book, the atomic method make sure that only one thread at a time will be allowed to update
-        Lock lock = bookLocks.computeIfAbsent(item.getBookId(), id -> new ReentrantLock());
-        // Acquire the lock before processing the book
-        lock.lock();
-        try {
-            log.info("{} starts with book: item id {} and quantity {} processing --- ",
-                    Thread.currentThread().getName(), item.getBookId(), item.getQuantity());
-            Book book = bookRepository.findById(item.getBookId())
-                    .orElseThrow(() -> new RuntimeException("Book not found: " + item.getBookId()));
-
-            if (book.getStock() < item.getQuantity()) {
-                throw new RuntimeException("Insufficient stock for book: " + book.getTitle());
-            }
-            log.info("{} reducing the stock quantity ", Thread.currentThread().getName());
-            book.setStock(book.getStock() - item.getQuantity());
-            bookRepository.save(book);
-            Item orderItem = getItem(item, parentOrder, book);
-            orderItems.add(orderItem);
-        } finally {
-            // Release the lock
-            lock.unlock();
+    private void checkStock(Item item, Book book) {
+        if (book == null) {
+            throw new ProductNotFoundException("Book not found: " + item.getBookId());
+        }
+        if (shardedStockService.totalStock(book) < item.getQuantity()) {
+            throw new InsufficientStockException("Insufficient stock for book: " + book.getTitle());
         }
     }
 
-    private static Item getItem(Item item, Order parentOrder, Book book) {
-        Item orderItem = new Item();
-        orderItem.setOrder(parentOrder);
-        orderItem.setBookId(book.getId());
-        orderItem.setQuantity(item.getQuantity());
-        return orderItem;
+    private static Order newOrder(User user, List<Item> orderItems) {
+        Order parentOrder = new Order();
+        parentOrder.setUser(user);
+        parentOrder.setOrderDate(LocalDateTime.now());
+        parentOrder.setItems(orderItems);
+        orderItems.forEach(item -> item.setOrder(parentOrder));
+        return parentOrder;
     }
 }
@@ -1,6 +1,8 @@
 package com.bookshop.service;
 
 import com.bookshop.dto.BookOrderRequest;
+import com.bookshop.exception.InsufficientStockException;
+import com.bookshop.exception.ProductNotFoundException;
 import com.bookshop.model.Book;
 import com.bookshop.model.Item;
 import com.bookshop.model.Order;
@@ -8,18 +10,15 @@ import com.bookshop.model.User;
 import com.bookshop.repository.BookRepository;
 import com.bookshop.repository.OrderRepository;
 import com.bookshop.repository.UserRepository;
-import jakarta.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 @Slf4j
 @Service
@@ -29,99 +28,70 @@ public class BookTransferServiceFuture {
     private final UserRepository userRepository;
     private final BookRepository bookRepository;
     private final OrderRepository orderRepository;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
-    private final ConcurrentHashMap<Long, Lock> bookLocks = new ConcurrentHashMap<>();
+    private final ExecutorService executorService;
+    private final StockReservationService stockReservationService;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardedStockService shardedStockService;
 
     public void transferBooks(BookOrderRequest request) {
-        Order parentOrder = new Order();
         User user = userRepository.findById(request.getUserId()).orElseThrow();
-        parentOrder.setUser(user);
-        parentOrder.setOrderDate(LocalDateTime.now());
-
-        List<Item> orderItems = Collections.synchronizedList(new ArrayList<>());
-        CountDownLatch latch = new CountDownLatch(request.getOrderItems().size());
+        List<Item> orderItems = OrderService.normaliseOrderedItems(request.getOrderItems());
 
+        // parallel phase: read-only checks only, a failing item leaves nothing to undo
         List<Future<?>> futures = new ArrayList<>();
+        for (Item item : orderItems) {
+            futures.add(executorService.submit(() -> checkStock(item)));
+        }
+        awaitChecks(futures);
+
+        // all mutations in one transaction on this thread: the stock batch and the order insert
+        // commit or roll back together, whatever happened to the stock since the checks
+        Order parentOrder = transactionTemplate.execute(status -> {
+            stockReservationService.reserve(orderItems);
+            return orderRepository.save(newOrder(user, orderItems));
+        });
+        stockReservationService.awaitCommittedChanges();
+        log.debug("Order placed successfully with ID: {}", parentOrder.getId());
+    }
 
+    private void awaitChecks(List<Future<?>> futures) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
         try {
-            for (Item item : request.getOrderItems()) {
-                Future<?> future = executorService.submit(() -> {
-                    try {
-                        processBookOrder(item, parentOrder, orderItems);
-                    } finally {
-                        latch.countDown();
-                    }
-                });
-                futures.add(future);
-            }
-
-            // Wait for all tasks to complete with a timeout
-            if (!latch.await(30, TimeUnit.SECONDS)) {
-                throw new RuntimeException("Order processing timed out");
-            }
-
-            // Check for any exceptions in the futures
             for (Future<?> future : futures) {
-                try {
-                    // This will throw an exception if the task failed,returns null if the task has finished correctly.
-                    future.get();
-                } catch (ExecutionException e) {
-                    throw new RuntimeException("Error processing order: " + e.getCause().getMessage());
-                }
+                // This will throw an exception if the task failed,returns null if the task has finished correctly.
+                future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
             }
-            parentOrder.setItems(new ArrayList<>(orderItems));
-            orderRepository.save(parentOrder);
-            log.info("Order placed successfully with ID: {}", parentOrder.getId());
-
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException("Error processing order: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new RuntimeException("Order processing timed out");
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new RuntimeException("Order processing interrupted", e);
-        } finally {
-            for (Item item : request.getOrderItems()) {
-                bookLocks.remove(item.getBookId());
-            }
         }
     }
 
-    private void processBookOrder(Item item, Order parentOrder, List<Item> orderItems) {
-        Lock lock = bookLocks.computeIfAbsent(item.getBookId(), id -> new ReentrantLock());
-        log.info("future service : processing started with thread: {} for book id:{}",
+    private void checkStock(Item item) {
+        log.debug("future service : checking stock with thread: {} for book id:{}",
                 Thread.currentThread().getName(), item.getBookId());
-        lock.lock();
-        try {
-            Book book = bookRepository.findById(item.getBookId())
-                    .orElseThrow(() -> new RuntimeException("Book not found: " + item.getBookId()));
-            if (book.getStock() < item.getQuantity()) {
-                throw new RuntimeException("Insufficient stock for book: " + book.getTitle());
-            }
-            book.setStock(book.getStock() - item.getQuantity());
-            bookRepository.save(book);
-            log.info("future service : the quantity changed with thread: {}", Thread.currentThread().getName());
-            Item orderItem = new Item();
-            orderItem.setOrder(parentOrder);
-            orderItem.setBookId(book.getId());
-            orderItem.setQuantity(item.getQuantity());
-            orderItems.add(orderItem);
-
-
-        } finally {
-            lock.unlock();
+        Book book = bookRepository.findById(item.getBookId())
+                .orElseThrow(() -> new ProductNotFoundException("Book not found: " + item.getBookId()));
+        if (shardedStockService.totalStock(book) < item.getQuantity()) {
+            throw new InsufficientStockException("Insufficient stock for book: " + book.getTitle());
         }
     }
 
-    // instead of  calling shut down in main tread, when the particular order is complete,
-    // we can do it when the app Book transfer service bean is going to destroy
-    @PreDestroy
-    public void shutdown() {
-        executorService.shutdown();
-        try {
-            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
+    private static Order newOrder(User user, List<Item> orderItems) {
+        Order parentOrder = new Order();
+        parentOrder.setUser(user);
+        parentOrder.setOrderDate(LocalDateTime.now());
+        parentOrder.setItems(orderItems);
+        orderItems.forEach(item -> item.setOrder(parentOrder));
+        return parentOrder;
     }
-
 }
@@ -0,0 +1,121 @@
+package com.bookshop.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.bookshop.dto.BookOrderRequest;
+import com.bookshop.dto.BulkOrderResult;
+import com.bookshop.dto.OrderDto;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Places orders read one by one from a JSON array or from NDJSON (one order per line), and writes one NDJSON
+ * result line per order. Only one batch of orders is held in memory at a time, whatever the size of the upload.
+ * Every batch is written with GroupCommit, a failing order doesn't fail the rest of its batch.
+ */
+@Slf4j
+@Service
+public class BulkOrderImportService {
+
+    private final OrderService orderService;
+    private final TransactionTemplate transactionTemplate;
+    private final StockReservationService stockReservationService;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter resultWriter;
+    private final int batchSize;
+
+    public BulkOrderImportService(OrderService orderService,
+                                  TransactionTemplate transactionTemplate,
+                                  StockReservationService stockReservationService,
+                                  ObjectMapper objectMapper,
+                                  @Value("${bookshop.order.import.batch-size:200}") int batchSize) {
+        this.orderService = orderService;
+        this.transactionTemplate = transactionTemplate;
+        this.stockReservationService = stockReservationService;
+        this.objectMapper = objectMapper;
+        // flushed once per batch, not after every result line
+        this.resultWriter = objectMapper.writerFor(BulkOrderResult.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.batchSize = batchSize;
+    }
+
+    public void importOrders(InputStream orders, OutputStream results) throws IOException {
+        try (JsonParser parser = objectMapper.createParser(orders);
+             JsonGenerator generator = objectMapper.createGenerator(results)) {
+            // every result ends with a new line instead of being separated by a space
+            generator.setRootValueSeparator(null);
+            long index = 0;
+            List<BookOrderRequest> batch = new ArrayList<>(batchSize);
+            try {
+                JsonToken token = parser.nextToken();
+                boolean array = token == JsonToken.START_ARRAY;
+                if (array) {
+                    token = parser.nextToken();
+                }
+                // NDJSON is a sequence of root values, which the parser reads without any separator handling
+                while (token != null && token != JsonToken.END_ARRAY) {
+                    batch.add(parser.readValueAs(BookOrderRequest.class));
+                    if (batch.size() == batchSize) {
+                        index = placeBatch(batch, index, generator);
+                    }
+                    token = parser.nextToken();
+                }
+            } catch (JsonProcessingException e) {
+                // the orders read before the malformed one are still placed and reported
+                index = placeBatch(batch, index, generator);
+                write(generator, new BulkOrderResult(index, null, "Malformed order: " + e.getOriginalMessage()));
+                log.info("Bulk import stopped at order {}: {}", index, e.getOriginalMessage());
+                return;
+            }
+            index = placeBatch(batch, index, generator);
+            log.info("Bulk import of {} orders done", index);
+        }
+    }
+
+    private long placeBatch(List<BookOrderRequest> batch, long firstIndex, JsonGenerator generator) throws IOException {
+        List<Supplier<OrderDto>> writes = batch.stream()
+                .<Supplier<OrderDto>>map(request -> () -> orderService.placeOrder(request))
+                .toList();
+        List<CompletableFuture<OrderDto>> placed = GroupCommit.commit(transactionTemplate, writes);
+        stockReservationService.awaitCommittedChanges();
+        long index = firstIndex;
+        for (CompletableFuture<OrderDto> order : placed) {
+            write(generator, result(index++, order));
+        }
+        // results reach the client batch by batch instead of at the end of the upload
+        generator.flush();
+        batch.clear();
+        return index;
+    }
+
+    private static BulkOrderResult result(long index, CompletableFuture<OrderDto> order) {
+        try {
+            return new BulkOrderResult(index, order.get().getId(), null);
+        } catch (ExecutionException e) {
+            return new BulkOrderResult(index, null, String.valueOf(e.getCause().getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BulkOrderResult(index, null, "Interrupted");
+        }
+    }
+
+    private void write(JsonGenerator generator, BulkOrderResult result) throws IOException {
+        resultWriter.writeValue(generator, result);
+        generator.writeRaw('\n');
+    }
+}
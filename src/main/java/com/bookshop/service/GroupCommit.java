@@ -0,0 +1,56 @@
+package com.bookshop.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import lombok.extern.slf4j.Slf4j;
+
+// runs writes in one shared transaction, so they share one commit. Every write runs in a nested transaction
+// (a savepoint) of the shared one: a failing write rolls back alone and the others still commit together.
+// If the shared transaction itself fails, every write is run again in its own transaction
+@Slf4j
+final class GroupCommit {
+
+    private GroupCommit() {
+    }
+
+    // the returned futures are already completed, in the order of the writes
+    static <T> List<CompletableFuture<T>> commit(TransactionTemplate transactionTemplate, List<Supplier<T>> writes) {
+        TransactionTemplate nestedTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager(), transactionTemplate);
+        nestedTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+        try {
+            return transactionTemplate.execute(status -> writes.stream().map(write -> commitNested(nestedTemplate, write)).toList());
+        } catch (RuntimeException e) {
+            if (writes.size() > 1) {
+                log.debug("Group commit of {} writes failed, writing them one by one: {}", writes.size(), e.getMessage());
+            }
+            List<CompletableFuture<T>> results = new ArrayList<>(writes.size());
+            writes.forEach(write -> results.add(commitAlone(transactionTemplate, write)));
+            return results;
+        }
+    }
+
+    // flushed inside the savepoint, so a failing insert or update is rolled back with its own write only
+    private static <T> CompletableFuture<T> commitNested(TransactionTemplate nestedTemplate, Supplier<T> write) {
+        try {
+            return CompletableFuture.completedFuture(nestedTemplate.execute(status -> {
+                T value = write.get();
+                status.flush();
+                return value;
+            }));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> commitAlone(TransactionTemplate transactionTemplate, Supplier<T> write) {
+        try {
+            return CompletableFuture.completedFuture(transactionTemplate.execute(status -> write.get()));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.bookshop.service;
+
+import java.util.Comparator;
+import java.util.List;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import com.bookshop.ledger.StockLedger;
+import com.bookshop.model.Item;
+
+// reserves against the in-memory ledger, the book rows are updated later by the ledger flusher,
+// which also publishes the stock changes once they are written
+@Service
+@ConditionalOnProperty(name = "bookshop.stock.mode", havingValue = "ledger")
+public class LedgerStockReservationService extends AbstractStockReservationService {
+
+    private final StockLedger stockLedger;
+
+    public LedgerStockReservationService(BookCatalogService bookCatalogService,
+                                         ApplicationEventPublisher eventPublisher,
+                                         StockLedger stockLedger) {
+        super(bookCatalogService, eventPublisher);
+        this.stockLedger = stockLedger;
+    }
+
+    @Override
+    public void reserve(List<Item> items) {
+        // the withdrawals already made are undone by the ledger when the exception rolls the order back
+        for (Item item : items.stream().sorted(Comparator.comparing(Item::getBookId)).toList()) {
+            reserve(item.getBookId(), item.getQuantity());
+        }
+    }
+
+    @Override
+    public void reserve(Long bookId, int quantity) {
+        if (!stockLedger.tryWithdraw(bookId, quantity)) {
+            throw insufficientStock(bookId);
+        }
+    }
+
+    @Override
+    public void release(Long bookId, int quantity) {
+        stockLedger.deposit(bookId, quantity);
+    }
+
+    @Override
+    public void awaitCommittedChanges() {
+        stockLedger.awaitFlushed();
+    }
+}
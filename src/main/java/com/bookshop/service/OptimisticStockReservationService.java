@@ -0,0 +1,127 @@
+package com.bookshop.service;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import com.bookshop.exception.StockUpdateConflictException;
+import com.bookshop.model.Item;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads the stock and the version of the book, then writes the new stock only if the version is unchanged.
+ * A concurrent writer makes the update miss, the reservation is retried after a jittered backoff
+ * until max-attempts. Nothing waits on a lock between the read and the write, which suits books
+ * that are often read and rarely contended.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "bookshop.stock.mode", havingValue = "optimistic")
+public class OptimisticStockReservationService extends AbstractStockReservationService {
+
+    static final String SELECT_STOCK_SQL = "select stock, version from book where id = ?";
+    static final String COMPARE_AND_SET_STOCK_SQL =
+            "update book set stock = ?, version = version + 1 where id = ? and version = ?";
+    static final String INCREMENT_STOCK_SQL = "update book set stock = stock + ?, version = version + 1 where id = ?";
+
+    private static final String RETRY_COUNTER = "bookshop.stock.optimistic.retries";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int maxAttempts;
+    private final Duration backoff;
+
+    public OptimisticStockReservationService(BookCatalogService bookCatalogService,
+                                             JdbcTemplate jdbcTemplate,
+                                             ApplicationEventPublisher eventPublisher,
+                                             MeterRegistry meterRegistry,
+                                             @Value("${bookshop.stock.optimistic.max-attempts:5}") int maxAttempts,
+                                             @Value("${bookshop.stock.optimistic.backoff:5ms}") Duration backoff) {
+        super(bookCatalogService, eventPublisher);
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+    }
+
+    @Override
+    public void reserve(List<Item> items) {
+        List<Item> sortedItems = items.stream().sorted(Comparator.comparing(Item::getBookId)).toList();
+        for (Item item : sortedItems) {
+            compareAndSetStock(item.getBookId(), item.getQuantity());
+        }
+        stockChanged(sortedItems.stream().map(Item::getBookId).toList());
+    }
+
+    @Override
+    public void reserve(Long bookId, int quantity) {
+        compareAndSetStock(bookId, quantity);
+        stockChanged(List.of(bookId));
+    }
+
+    // an increment can't make the stock invalid, it only bumps the version so pending reservations re-read
+    @Override
+    public void release(Long bookId, int quantity) {
+        jdbcTemplate.update(INCREMENT_STOCK_SQL, quantity, bookId);
+        stockChanged(List.of(bookId));
+    }
+
+    // the failed attempts don't write anything, so retrying inside the order transaction is safe
+    void compareAndSetStock(Long bookId, int quantity) {
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            StockVersion current = readStock(bookId);
+            if (current.stock() < quantity) {
+                throw insufficientStock(bookId);
+            }
+            if (jdbcTemplate.update(COMPARE_AND_SET_STOCK_SQL, current.stock() - quantity, bookId, current.version()) == 1) {
+                return;
+            }
+            retryCounter(bookId).increment();
+            if (attempt < maxAttempts) {
+                backOff(attempt);
+            }
+        }
+        log.warn("Stock of book {} changed concurrently {} times in a row", bookId, maxAttempts);
+        throw new StockUpdateConflictException("Book is being ordered by too many requests, please retry");
+    }
+
+    private StockVersion readStock(Long bookId) {
+        try {
+            return jdbcTemplate.queryForObject(SELECT_STOCK_SQL,
+                    (rs, rowNum) -> new StockVersion(rs.getInt("stock"), rs.getLong("version")), bookId);
+        } catch (EmptyResultDataAccessException e) {
+            throw insufficientStock(bookId);
+        }
+    }
+
+    // exponential with full jitter, so the writers that collided don't collide again on the next attempt
+    private void backOff(int attempt) {
+        long maxDelay = backoff.toNanos() << Math.min(attempt - 1, 10);
+        try {
+            TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StockUpdateConflictException("Interrupted while retrying the stock update");
+        }
+    }
+
+    // tagged per book, so the hot books stand out
+    private Counter retryCounter(Long bookId) {
+        return Counter.builder(RETRY_COUNTER)
+                .description("Optimistic stock updates that lost the race and were retried")
+                .tag("book", String.valueOf(bookId))
+                .register(meterRegistry);
+    }
+
+    private record StockVersion(int stock, long version) {
+    }
+}
@@ -0,0 +1,151 @@
+package com.bookshop.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.bookshop.concurrency.threadpool.RingBufferBlockingQueue;
+import com.bookshop.exception.OrderQueueFullException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Group commit of order writes: concurrent orders wait in a bounded queue, a writer thread takes up to max-batch
+ * of them, or what arrived within max-wait, and writes them with GroupCommit: one order short of stock
+ * fails alone and the others are still placed.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "bookshop.order.write-mode", havingValue = "group-commit")
+public class OrderGroupCommitWriter {
+
+    private final TransactionTemplate transactionTemplate;
+    private final StockReservationService stockReservationService;
+    private final BlockingQueue<PendingWrite<?>> queue;
+    private final int maxBatch;
+    private final Duration maxWait;
+    private final int writers;
+    private final DistributionSummary batchSize;
+    private final List<Thread> writerThreads = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public OrderGroupCommitWriter(TransactionTemplate transactionTemplate,
+                                  StockReservationService stockReservationService,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${bookshop.order.group-commit.queue-capacity:10000}") int queueCapacity,
+                                  @Value("${bookshop.order.group-commit.max-batch:50}") int maxBatch,
+                                  @Value("${bookshop.order.group-commit.max-wait:200us}") Duration maxWait,
+                                  @Value("${bookshop.order.group-commit.writers:2}") int writers) {
+        this.transactionTemplate = transactionTemplate;
+        this.stockReservationService = stockReservationService;
+        // submitted from every request thread at once, no lock is shared by the producers
+        this.queue = new RingBufferBlockingQueue<>(queueCapacity, RingBufferBlockingQueue.WaitStrategy.PARK);
+        this.maxBatch = maxBatch;
+        this.maxWait = maxWait;
+        this.writers = writers;
+        Gauge.builder("bookshop.order.group-commit.queue", queue, BlockingQueue::size)
+                .description("Orders waiting for a group commit")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("bookshop.order.group-commit.batch.size")
+                .description("Orders written by one group commit")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < writers; i++) {
+            Thread thread = new Thread(this::writeLoop, "order-group-commit-" + i);
+            thread.start();
+            writerThreads.add(thread);
+        }
+    }
+
+    // queued orders are still written, new ones are refused
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread thread : writerThreads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    // the write runs later on a writer thread, inside the transaction shared with the other orders of its batch
+    public <T> CompletableFuture<T> submit(Supplier<T> write) {
+        PendingWrite<T> pendingWrite = new PendingWrite<>(write, new CompletableFuture<>());
+        if (!running || !queue.offer(pendingWrite)) {
+            pendingWrite.result().completeExceptionally(
+                    new OrderQueueFullException("Too many orders are waiting to be written, please retry"));
+        }
+        return pendingWrite.result();
+    }
+
+    private void writeLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                List<PendingWrite<?>> batch = nextBatch();
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Order group commit failed", e);
+            }
+        }
+    }
+
+    // blocks for the first order, then collects more until the batch is full or max-wait has passed
+    private List<PendingWrite<?>> nextBatch() throws InterruptedException {
+        List<PendingWrite<?>> batch = new ArrayList<>(maxBatch);
+        PendingWrite<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + maxWait.toNanos();
+        while (batch.size() < maxBatch) {
+            PendingWrite<?> next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    private void write(List<PendingWrite<?>> batch) {
+        batchSize.record(batch.size());
+        List<Supplier<Object>> writes = batch.stream().<Supplier<Object>>map(pendingWrite -> pendingWrite.write()::get).toList();
+        List<CompletableFuture<Object>> results = GroupCommit.commit(transactionTemplate, writes);
+        stockReservationService.awaitCommittedChanges();
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).completeWith(results.get(i));
+        }
+    }
+
+    private record PendingWrite<T>(Supplier<T> write, CompletableFuture<T> result) {
+        @SuppressWarnings("unchecked")
+        void completeWith(CompletableFuture<Object> written) {
+            written.whenComplete((value, failure) -> {
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete((T) value);
+                }
+            });
+        }
+    }
+}
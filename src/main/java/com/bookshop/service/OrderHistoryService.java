@@ -0,0 +1,72 @@
+package com.bookshop.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import com.bookshop.dto.OrderDto;
+import com.bookshop.dto.OrderHistoryPage;
+import com.bookshop.exception.InvalidCursorException;
+import com.bookshop.repository.OrderHistoryRepository;
+
+@Service
+public class OrderHistoryService {
+
+    private static final String CURSOR_SEPARATOR = "|";
+
+    private final OrderHistoryRepository orderHistoryRepository;
+    private final int maxPageSize;
+
+    public OrderHistoryService(OrderHistoryRepository orderHistoryRepository,
+                               @Value("${bookshop.order.history.max-page-size:100}") int maxPageSize) {
+        this.orderHistoryRepository = orderHistoryRepository;
+        this.maxPageSize = maxPageSize;
+    }
+
+    // newest orders first, a null cursor starts from the latest order
+    public OrderHistoryPage getUserOrders(Long userId, String cursor, int size) {
+        int pageSize = Math.max(1, Math.min(size, maxPageSize));
+        List<OrderDto> orders;
+        if (cursor == null || cursor.isBlank()) {
+            orders = orderHistoryRepository.findFirstPage(userId, pageSize);
+        } else {
+            Cursor after = decode(cursor);
+            orders = orderHistoryRepository.findNextPage(userId, after.orderDate(), after.orderId(), pageSize);
+        }
+        String nextCursor = orders.size() < pageSize ? null : encode(orders.get(orders.size() - 1));
+        return new OrderHistoryPage(orders, nextCursor);
+    }
+
+    // the orders are handed over one at a time while the rows are read, the whole history is never held in memory
+    @Transactional(readOnly = true)
+    public void exportUserOrders(Long userId, Consumer<OrderDto> consumer) {
+        try (Stream<OrderDto> orders = orderHistoryRepository.streamAll(userId)) {
+            orders.forEach(consumer);
+        }
+    }
+
+    private static String encode(OrderDto lastOrder) {
+        String cursor = lastOrder.getOrderDate() + CURSOR_SEPARATOR + lastOrder.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Cursor decode(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.lastIndexOf(CURSOR_SEPARATOR);
+            return new Cursor(LocalDateTime.parse(decoded.substring(0, separator)),
+                    Long.parseLong(decoded.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new InvalidCursorException("Invalid cursor: " + cursor);
+        }
+    }
+
+    private record Cursor(LocalDateTime orderDate, Long orderId) {
+    }
+}
@@ -1,39 +1,40 @@
 package com.bookshop.service;
 
-import static com.bookshop.controller.BookOrderController.handleError;
+import static com.bookshop.service.OrderStageTimers.Stage.MAP;
+import static com.bookshop.service.OrderStageTimers.Stage.NORMALISE;
+import static com.bookshop.service.OrderStageTimers.Stage.PERSIST;
+import static com.bookshop.service.OrderStageTimers.Stage.RESERVE;
 import static java.util.concurrent.CompletableFuture.supplyAsync;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import com.bookshop.dto.BookOrderRequest;
 import com.bookshop.dto.OrderDto;
-import com.bookshop.exception.InsufficientStockException;
+import com.bookshop.event.OrderChangedEvent;
 import com.bookshop.exception.OrderNotFoundException;
-import com.bookshop.exception.ProductNotFoundException;
 import com.bookshop.mapper.OrderDtoMapper;
-import com.bookshop.model.Book;
 import com.bookshop.model.Item;
 import com.bookshop.model.Order;
 import com.bookshop.model.User;
-import com.bookshop.repository.BookRepository;
 import com.bookshop.repository.ItemRepository;
+import com.bookshop.repository.OrderHistoryRepository;
 import com.bookshop.repository.OrderRepository;
 import com.bookshop.repository.UserRepository;
-import jakarta.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -43,171 +44,156 @@ import lombok.extern.slf4j.Slf4j;
 public class OrderService {
 
     private final UserRepository userRepository;
-    private final BookRepository bookRepository;
     private final OrderRepository orderRepository;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
-    private final ConcurrentHashMap<Long, Lock> bookLocks = new ConcurrentHashMap<>();
+    private final OrderHistoryRepository orderHistoryRepository;
+    private final ExecutorService executorService;
     private final OrderDtoMapper orderDtoMapper;
     private final ItemRepository itemRepository;
-
-    private static List<Item> handleException(Throwable ex) {
-        handleError(ex);
-        log.error("Order processing exception: {}", ex.getMessage());
-        throw new RuntimeException("Order processing error: " + ex.getMessage());
+    private final StockReservationService stockReservationService;
+    private final BookLockService bookLockService;
+    // only present with bookshop.order.write-mode=group-commit
+    private final ObjectProvider<OrderGroupCommitWriter> groupCommitWriter;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final OrderStageTimers stageTimers;
+
+    // the returned future completes on the order executor, the servlet thread is released as soon as the task is queued
+    public CompletableFuture<OrderDto> createOrder(BookOrderRequest bookOrderRequest) {
+        OrderGroupCommitWriter writer = groupCommitWriter.getIfAvailable();
+        if (writer != null) {
+            return writer.submit(() -> placeOrder(bookOrderRequest));
+        }
+        return supplyAsync(() -> executeDurably(() -> placeOrder(bookOrderRequest)), executorService);
     }
 
-    private static CompletableFuture<List<Item>> getListCompletableFuture(List<CompletableFuture<Item>> orderItemFutures) {
-        return CompletableFuture.allOf(orderItemFutures.toArray(new CompletableFuture[0]))
-                .thenApply(v -> orderItemFutures.stream()
-                        .map(CompletableFuture::join)
-                        .collect(Collectors.toList()))
-                .orTimeout(5, TimeUnit.SECONDS)
-                .exceptionally(OrderService::handleException);
+    public CompletableFuture<OrderDto> updateOrder(Long orderId, BookOrderRequest bookOrderRequest) {
+        return supplyAsync(() -> executeDurably(() -> applyOrderUpdate(orderId, bookOrderRequest)), executorService);
     }
 
-    @Transactional
-    public OrderDto createOrder(BookOrderRequest bookOrderRequest) throws ExecutionException, InterruptedException {
-        List<CompletableFuture<Item>> orderItemFutures = normaliseOrderedItems(bookOrderRequest.getOrderItems())
-                .stream()
-                .map(item -> supplyAsync(() -> processBookItem(item), executorService)).toList();
-
-        CompletableFuture<List<Item>> allOrderItemsFuture = getListCompletableFuture(orderItemFutures);
-
-        return allOrderItemsFuture.thenApply(orderItems -> {
-            Order order = createNewOrder(bookOrderRequest, orderItems);
-            orderRepository.save(order);
-            return orderDtoMapper.mapOrderDto(order);
-        }).orTimeout(10, TimeUnit.SECONDS).get();
+    // the stock changes are awaited once the transaction has released its connection, the ledger flusher needs one
+    private <T> T executeDurably(Supplier<T> write) {
+        T result = transactionTemplate.execute(status -> write.get());
+        stockReservationService.awaitCommittedChanges();
+        return result;
     }
 
-    private Item processBookItem(Item item) {
-        Lock lock = bookLocks.computeIfAbsent(item.getBookId(), id -> new ReentrantLock());
-        log.info(" processing started with thread: {} for book id:{}",
-                Thread.currentThread().getName(), item.getBookId());
-        lock.lock();
-        try {
-            updateBookStock(item);
-            log.info("the book stock has been changed with thread: {}", Thread.currentThread().getName());
-        } finally {
-            lock.unlock();
-            bookLocks.remove(item.getBookId());
-        }
-        return item;
+    // must run in a transaction, package-private for BulkOrderImportService
+    OrderDto placeOrder(BookOrderRequest bookOrderRequest) {
+        List<Item> orderItems = stageTimers.record(NORMALISE, () -> normaliseOrderedItems(bookOrderRequest.getOrderItems()));
+        // the whole basket is reserved at once, the stage covers all its items
+        stageTimers.record(RESERVE, () -> stockReservationService.reserve(orderItems));
+
+        Order order = stageTimers.record(PERSIST, () -> orderRepository.save(createNewOrder(bookOrderRequest, orderItems)));
+        eventPublisher.publishEvent(new OrderChangedEvent(List.of(), bookIds(orderItems)));
+        return stageTimers.record(MAP, () -> orderDtoMapper.mapOrderDto(order));
     }
 
-    @Transactional
-    public OrderDto updateOrder(Long orderId, BookOrderRequest bookOrderRequest) throws ExecutionException, InterruptedException {
+    private OrderDto applyOrderUpdate(Long orderId, BookOrderRequest bookOrderRequest) {
         Order order = orderRepository.findById(orderId).orElseThrow(() -> new OrderNotFoundException("Order not found"));
-        log.info("Order to update: {}", order);
+        log.debug("Order to update: {}", order);
 
         List<Item> existingItems = new ArrayList<>(order.getItems());
-        List<Item> newItems = normaliseOrderedItems(bookOrderRequest.getOrderItems());
-
-        restoreStockForRemovedItems(existingItems, newItems);
-        List<CompletableFuture<Item>> orderItemFutures = newItems.stream()
-                .map(item -> supplyAsync(() -> processUpdateItem(item, existingItems), executorService))
-                .toList();
+        List<Item> newItems = stageTimers.record(NORMALISE, () -> normaliseOrderedItems(bookOrderRequest.getOrderItems()));
+        bookLockService.lockUntilCompletion(bookIdsOf(existingItems, newItems));
 
-        CompletableFuture<List<Item>> allOrderItemsFuture = getListCompletableFuture(orderItemFutures);
+        // releases, reserves and adjustments run on this thread in one pass sorted by book, so the row locks are
+        // taken in the same order as by a concurrent create, update or delete and they share the order transaction
+        stageTimers.record(RESERVE, () -> stockDeltas(existingItems, newItems).forEach(this::applyStockDelta));
 
-        return allOrderItemsFuture.thenApply(orderItems -> {
-            for (Item item : orderItems) {
-                item.setOrder(order);
+        Map<Long, Item> existingItemsByBook = new HashMap<>();
+        existingItems.forEach(item -> existingItemsByBook.put(item.getBookId(), item));
+        List<Item> orderItems = new ArrayList<>(newItems.size());
+        for (Item newItem : newItems) {
+            Item existingItem = existingItemsByBook.remove(newItem.getBookId());
+            if (existingItem == null) {
+                newItem.setOrder(order);
+                orderItems.add(newItem);
+            } else {
+                existingItem.setQuantity(newItem.getQuantity());
+                orderItems.add(existingItem);
             }
-            order.setItems(orderItems);
-            log.info("Order was updated: {}", order);
-            return orderDtoMapper.mapOrderDto(order);
-        }).orTimeout(10, TimeUnit.SECONDS).get();
-    }
+        }
+        existingItemsByBook.values().forEach(this::removeItem);
 
-    private List<Item> normaliseOrderedItems(List<Item> items) {
-        return new ArrayList<>(items.stream()
-                .collect(Collectors.toMap(Item::getBookId, item -> item, (existing, newItem) -> {
-                    existing.setQuantity(existing.getQuantity() + newItem.getQuantity());
-                    return existing;
-                })).values());
+        order.setItems(orderItems);
+        eventPublisher.publishEvent(new OrderChangedEvent(bookIds(existingItems), bookIds(orderItems)));
+        log.debug("Order was updated: {}", order);
+        return stageTimers.record(MAP, () -> orderDtoMapper.mapOrderDto(order));
     }
 
-    private Item processUpdateItem(Item requestedItem, List<Item> existingItems) {
-        Lock lock = bookLocks.computeIfAbsent(requestedItem.getBookId(), id -> new ReentrantLock());
-        lock.lock();
-        try {
-            Item existingItem = existingItems.stream()
-                    .filter(item -> Objects.equals(item.getBookId(), requestedItem.getBookId()))
-                    .findFirst().orElse(null);
-
-            return existingItem == null ? updateBookStock(requestedItem) : adjustBookStock(requestedItem, existingItem);
-        } finally {
-            lock.unlock();
-        }
+    // requested minus ordered quantity per book, sorted by book id. Books whose quantity is unchanged are left out
+    private static Map<Long, Integer> stockDeltas(List<Item> existingItems, List<Item> newItems) {
+        Map<Long, Integer> deltas = new TreeMap<>();
+        existingItems.forEach(item -> deltas.merge(item.getBookId(), -item.getQuantity(), Integer::sum));
+        newItems.forEach(item -> deltas.merge(item.getBookId(), item.getQuantity(), Integer::sum));
+        deltas.values().removeIf(delta -> delta == 0);
+        return deltas;
     }
 
-    private void restoreStockForRemovedItems(List<Item> existingItems, List<Item> newItems) {
-        HashMap<Long, Item> newItemsMap = new HashMap<>();
-        for (Item newItem : newItems) {
-            newItemsMap.put(newItem.getBookId(), newItem);
+    private void applyStockDelta(Long bookId, int delta) {
+        if (delta > 0) {
+            stockReservationService.reserve(bookId, delta);
+        } else {
+            stockReservationService.release(bookId, -delta);
         }
+    }
 
-        existingItems.stream().filter(item -> !newItemsMap.containsKey(item.getBookId())).forEach(this::restoreStockForRemovedItem);
+    // returns new items, the requested ones are left untouched so an order can be placed again after a failed
+    // group commit. package-private for OrderServiceBenchmark and the transfer services
+    static List<Item> normaliseOrderedItems(List<Item> items) {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        items.forEach(item -> quantities.merge(item.getBookId(), item.getQuantity(), Integer::sum));
+        List<Item> orderItems = new ArrayList<>(quantities.size());
+        quantities.forEach((bookId, quantity) -> orderItems.add(new Item(null, bookId, quantity, null)));
+        return orderItems;
     }
 
-    private void restoreStockForRemovedItem(Item item) {
-        Lock lock = bookLocks.computeIfAbsent(item.getBookId(), id -> new ReentrantLock());
-        lock.lock();
-        try {
-            Book book = bookRepository.findById(item.getBookId()).orElseThrow();
-            book.setStock(book.getStock() + item.getQuantity());
-            // item Removed  from the order and deleted  from the database
-            item.getOrder().getItems().remove(item);
-            item.setOrder(null);
-            itemRepository.delete(item);
-            bookRepository.save(book);
-            log.info("Stock restored for removed item: {}", item);
-        } finally {
-            lock.unlock();
-            bookLocks.remove(item.getBookId());
-        }
+    private static List<Long> bookIds(List<Item> items) {
+        return items.stream().map(Item::getBookId).toList();
     }
 
-    private Item adjustBookStock(Item requestedItem, Item existingItem) {
-        int stockAdjustment = requestedItem.getQuantity() - existingItem.getQuantity();
-        Book book = bookRepository.findById(existingItem.getBookId()).orElseThrow();
-        if (book.getStock() + existingItem.getQuantity() < requestedItem.getQuantity()) {
-            throw new InsufficientStockException("Insufficient stock for book: " + book.getTitle());
-        }
-        existingItem.setQuantity(requestedItem.getQuantity());
-        book.setStock(book.getStock() - stockAdjustment);
-        bookRepository.save(book);
-        return existingItem;
+    private static Set<Long> bookIdsOf(List<Item> existingItems, List<Item> newItems) {
+        Set<Long> bookIds = new HashSet<>(bookIds(existingItems));
+        bookIds.addAll(bookIds(newItems));
+        return bookIds;
     }
 
-    private Item updateBookStock(Item item) {
-        Book book = bookRepository.findById(item.getBookId()).orElseThrow(() -> new ProductNotFoundException("Book with requested id not found"));
-        if (book.getStock() < item.getQuantity()) {
-            throw new InsufficientStockException("Insufficient stock for book: " + book.getTitle());
-        }
-        book.setStock(book.getStock() - item.getQuantity());
-        bookRepository.save(book);
-        return item;
+    // the item is removed from the order and deleted from the database, its stock is released by the caller
+    private void removeItem(Item item) {
+        item.getOrder().getItems().remove(item);
+        item.setOrder(null);
+        itemRepository.delete(item);
+        log.debug("Item removed from the order: {}", item);
     }
 
+    // a single query straight into the dto, the order entity is not loaded
     public OrderDto getOrder(Long orderId) {
-        return orderDtoMapper.mapOrderDto(orderRepository
-                        .findById(orderId)
-                        .orElseThrow(() -> new OrderNotFoundException("Order not found")));
+        return orderHistoryRepository.findById(orderId).orElseThrow(() -> new OrderNotFoundException("Order not found"));
     }
 
-    @Transactional
     public void deleteOrder(Long orderId) {
+        executeDurably(() -> {
+            removeOrder(orderId);
+            return null;
+        });
+    }
+
+    private void removeOrder(Long orderId) {
         Order order = orderRepository.findById(orderId).orElseThrow(() -> new OrderNotFoundException("Order not found"));
-        order.getItems()
-                .forEach(this::restoreStockForRemovedItem);
+        // sorted by book, so the stock rows are released in the same order as they are taken by creates and updates
+        List<Item> items = order.getItems().stream()
+                .sorted(Comparator.comparing(Item::getBookId))
+                .toList();
+        bookLockService.lockUntilCompletion(bookIds(items));
+        for (Item item : items) {
+            stockReservationService.release(item.getBookId(), item.getQuantity());
+            removeItem(item);
+        }
 
         orderRepository.deleteById(orderId);
+        eventPublisher.publishEvent(new OrderChangedEvent(bookIds(items), List.of()));
     }
 
-
-
     private Order createNewOrder(BookOrderRequest bookOrderRequest, List<Item> orderItems) {
         User user = userRepository.findById(bookOrderRequest.getUserId()).orElseThrow();
         Order order = Order.builder()
@@ -218,17 +204,4 @@ public class OrderService {
         orderItems.forEach(item -> item.setOrder(order));
         return order;
     }
-
-    @PreDestroy
-    public void shutdown() {
-        executorService.shutdown();
-        try {
-            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
-    }
 }
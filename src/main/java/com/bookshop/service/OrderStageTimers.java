@@ -0,0 +1,39 @@
+package com.bookshop.service;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// time spent in each stage of placing or updating an order, published as bookshop.order.stage{stage=...}.
+// the timers are registered once, recording doesn't look them up in the registry
+@Component
+public class OrderStageTimers {
+
+    public enum Stage {
+        NORMALISE, RESERVE, PERSIST, MAP
+    }
+
+    private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+
+    public OrderStageTimers(MeterRegistry meterRegistry) {
+        for (Stage stage : Stage.values()) {
+            timers.put(stage, Timer.builder("bookshop.order.stage")
+                    .description("Time spent in a stage of placing or updating an order")
+                    .tag("stage", stage.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
+
+    public <T> T record(Stage stage, Supplier<T> supplier) {
+        return timers.get(stage).record(supplier);
+    }
+
+    public void record(Stage stage, Runnable runnable) {
+        timers.get(stage).record(runnable);
+    }
+}
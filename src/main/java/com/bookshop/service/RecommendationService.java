@@ -1,83 +1,111 @@
 package com.bookshop.service;
 
-import com.bookshop.dto.BookOrderRequest;
-import com.bookshop.model.Book;
-import com.bookshop.model.Item;
-import com.bookshop.repository.BookRepository;
-import jakarta.annotation.PreDestroy;
-import lombok.AllArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.stereotype.Service;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 
-import java.util.ArrayList;
+import java.time.Duration;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import com.bookshop.dto.BookDto;
+import com.bookshop.dto.BookOrderRequest;
+import com.bookshop.dto.ItemDto;
+import com.bookshop.dto.OrderDto;
+import com.bookshop.dto.OrderRecommendationsResponse;
+import com.bookshop.model.Item;
+import com.bookshop.recommendation.CoPurchaseIndex;
+import com.bookshop.recommendation.GenreRecommendationIndex;
+import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @Service
-@AllArgsConstructor
 public class RecommendationService {
 
-    private final BookRepository bookRepository;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(3);
+    private static final int RECOMMENDATIONS_PER_GENRE = 3;
+    private static final int CO_PURCHASE_RECOMMENDATIONS = 5;
 
-    public String getRecommendations(BookOrderRequest request) throws InterruptedException {
-        List<Item> items = request.getOrderItems().stream().distinct().toList();
-        List<Future> futureList = new ArrayList<>();
-        List<Book> recommendations = new ArrayList<>();
-        CountDownLatch countDownLatch = new CountDownLatch(items.size());
+    private final BookCatalogService bookCatalogService;
+    private final GenreRecommendationIndex recommendationIndex;
+    private final CoPurchaseIndex coPurchaseIndex;
+    private final OrderService orderService;
+    private final ExecutorService executorService;
+    private final Duration deadline;
 
-        for (Item item : items) {
-            Book book = bookRepository.findById(item.getBookId()).get();
-            Future<List<Book>> future = executorService.submit(() -> getRecommendations(book));
-            countDownLatch.countDown();
-            futureList.add(future);
-        }
+    public RecommendationService(BookCatalogService bookCatalogService,
+                                 GenreRecommendationIndex recommendationIndex,
+                                 CoPurchaseIndex coPurchaseIndex,
+                                 OrderService orderService,
+                                 ExecutorService executorService,
+                                 @Value("${bookshop.recommendation.deadline:500ms}") Duration deadline) {
+        this.bookCatalogService = bookCatalogService;
+        this.recommendationIndex = recommendationIndex;
+        this.coPurchaseIndex = coPurchaseIndex;
+        this.orderService = orderService;
+        this.executorService = executorService;
+        this.deadline = deadline;
+    }
 
-        // Wait for all tasks to complete with a timeout
-        if (!countDownLatch.await(5, TimeUnit.SECONDS)) {
-            log.info("not all recommendations were processed");
-        }
+    // the basket books are looked up with one batched query on the executor, the only step that can hit the
+    // database. The genres are then read from the in-memory index on the completing thread, no executor hop.
+    // The future always completes by the deadline, without recommendations if the lookup didn't make it
+    public CompletableFuture<List<BookDto>> getRecommendations(BookOrderRequest request) {
+        Set<Long> basket = request.getOrderItems().stream()
+                .map(Item::getBookId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
 
-        for (Future<?> future : futureList) {
-            try {
-                List<Book> list = (List<Book>) future.get();
-                recommendations.addAll(list);
-            } catch (ExecutionException e) {
-                log.info("Error fetching recommendations: {}", e.getCause().getMessage());
-            }
-        }
-        return recommendations.stream().distinct().map(Object::toString).collect(Collectors.joining(" \n"));
+        return withinDeadline(() -> bookCatalogService.findAllById(basket))
+                .thenApply(books -> books.stream()
+                        .map(BookDto::genre)
+                        .filter(Objects::nonNull)
+                        .distinct()
+                        .flatMap(genre -> recommendationIndex.topInStock(genre, RECOMMENDATIONS_PER_GENRE, basket).stream())
+                        .distinct()
+                        .toList());
     }
 
-    public List<Book> getRecommendations(Book orderedBook) {
-        log.info("Thread {} started fetching recommendations for {} ", Thread.currentThread().getName(), orderedBook.getTitle());
+    // completes with an empty list when the fetch fails, can't be queued or misses the deadline
+    private <T> CompletableFuture<List<T>> withinDeadline(Supplier<List<T>> fetch) {
+        CompletableFuture<List<T>> future;
         try {
-            // Simulate database query delay
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            future = supplyAsync(fetch, executorService);
+        } catch (RejectedExecutionException e) {
+            log.debug("Recommendation fetch rejected: {}", e.getMessage());
+            return CompletableFuture.completedFuture(List.of());
         }
-        List<Book> recommendations = bookRepository.findTop3ByGenreOrderByTitleAsc(orderedBook.getGenre());
-        recommendations.forEach(book -> log.info("recommended {}", book));
-        log.info("Thread {} completed fetching recommendations for the book {} ", Thread.currentThread().getName(), orderedBook.getTitle());
-        return recommendations;
+        return future
+                .completeOnTimeout(List.of(), deadline.toNanos(), TimeUnit.NANOSECONDS)
+                .exceptionally(e -> {
+                    log.debug("Recommendation fetch failed: {}", e.getMessage());
+                    return List.of();
+                });
     }
 
-    // instead of  calling shut down in main tread, when the particular order is complete,
-    // we can do it when the app Book transfer service bean is going to destroy
-    @PreDestroy
-    public void shutdown() {
-        executorService.shutdown();
-        try {
-            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
+    // in-stock books of the same genres as the basket, answered from the in-memory index only
+    public List<BookDto> getRecommendations(List<Long> bookIds) {
+        return recommendationIndex.recommend(bookIds, RECOMMENDATIONS_PER_GENRE);
+    }
+
+    // books most often ordered together with the basket, answered from the in-memory co-purchase counts
+    public List<BookDto> getCoPurchaseRecommendations(List<Long> bookIds) {
+        return coPurchaseIndex.topCoPurchased(bookIds, CO_PURCHASE_RECOMMENDATIONS).stream()
+                .map(bookCatalogService::findById)
+                .flatMap(Optional::stream)
+                .toList();
     }
 
+    public OrderRecommendationsResponse getOrderRecommendations(Long orderId) {
+        OrderDto order = orderService.getOrder(orderId);
+        List<Long> bookIds = order.getItems().stream().map(ItemDto::getBookId).toList();
+        return new OrderRecommendationsResponse(order, getRecommendations(bookIds));
+    }
 }
@@ -0,0 +1,71 @@
+package com.bookshop.service;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import com.bookshop.event.StockChangedEvent;
+import com.bookshop.exception.InsufficientStockException;
+import com.bookshop.exception.ProductNotFoundException;
+import com.bookshop.model.Item;
+import lombok.AllArgsConstructor;
+
+// decorates the configured stock mode: sharded books go through ShardedStockService, every other book
+// is reserved by the delegate exactly as without sharding
+@Service
+@Primary
+@AllArgsConstructor
+@ConditionalOnProperty(name = "bookshop.stock.sharding.enabled", havingValue = "true")
+public class ShardedStockReservationService implements StockReservationService {
+
+    private final AbstractStockReservationService delegate;
+    private final ShardedStockService shardedStockService;
+    private final BookCatalogService bookCatalogService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Override
+    public void reserve(List<Item> items) {
+        Map<Boolean, List<Item>> itemsBySharding = items.stream()
+                .sorted(Comparator.comparing(Item::getBookId))
+                .collect(Collectors.partitioningBy(item -> shardedStockService.isSharded(item.getBookId())));
+        if (!itemsBySharding.get(false).isEmpty()) {
+            delegate.reserve(itemsBySharding.get(false));
+        }
+        for (Item item : itemsBySharding.get(true)) {
+            reserveSharded(item.getBookId(), item.getQuantity());
+        }
+    }
+
+    @Override
+    public void reserve(Long bookId, int quantity) {
+        if (shardedStockService.isSharded(bookId)) {
+            reserveSharded(bookId, quantity);
+        } else {
+            delegate.reserve(bookId, quantity);
+        }
+    }
+
+    @Override
+    public void release(Long bookId, int quantity) {
+        if (shardedStockService.isSharded(bookId)) {
+            shardedStockService.release(bookId, quantity);
+            eventPublisher.publishEvent(new StockChangedEvent(List.of(bookId)));
+        } else {
+            delegate.release(bookId, quantity);
+        }
+    }
+
+    private void reserveSharded(Long bookId, int quantity) {
+        if (!shardedStockService.tryReserve(bookId, quantity)) {
+            String title = bookCatalogService.findById(bookId)
+                    .orElseThrow(() -> new ProductNotFoundException("Book with requested id not found"))
+                    .title();
+            throw new InsufficientStockException("Insufficient stock for book: " + title);
+        }
+        eventPublisher.publishEvent(new StockChangedEvent(List.of(bookId)));
+    }
+}
@@ -0,0 +1,176 @@
+package com.bookshop.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.bookshop.model.Book;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stock of hot books split over several rows, so concurrent orders of the same book update different rows
+ * instead of queuing on one row lock. Shard 0 is the stock column of the book, shards 1..n-1 are rows of
+ * book_stock_shard: code that only knows the book row still sees (part of) the real stock and never oversells.
+ * The sharded books are listed in bookshop.stock.sharding.books and re-split at startup,
+ * with sharding disabled the shards are folded back into the book row.
+ */
+@Slf4j
+@Service
+public class ShardedStockService {
+
+    static final String DECREMENT_BOOK_SQL =
+            "update book set stock = stock - ?, version = version + 1 where id = ? and stock >= ?";
+    static final String DECREMENT_SHARD_SQL =
+            "update book_stock_shard set stock = stock - ? where book_id = ? and shard = ? and stock >= ?";
+    private static final String INCREMENT_BOOK_SQL = "update book set stock = stock + ?, version = version + 1 where id = ?";
+    private static final String INCREMENT_SHARD_SQL = "update book_stock_shard set stock = stock + ? where book_id = ? and shard = ?";
+    private static final String LOCK_BOOK_STOCK_SQL = "select stock from book where id = ? for update";
+    private static final String LOCK_SHARD_STOCKS_SQL =
+            "select stock from book_stock_shard where book_id = ? order by shard for update";
+    private static final String SUM_SHARD_STOCKS_SQL = "select coalesce(sum(stock), 0) from book_stock_shard where book_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int shards;
+    private final Set<Long> configuredBooks;
+    // book id -> number of shards including the book row, only sharded books are in the map
+    private final Map<Long, Integer> shardedBooks = new ConcurrentHashMap<>();
+
+    public ShardedStockService(JdbcTemplate jdbcTemplate,
+                               TransactionTemplate transactionTemplate,
+                               @Value("${bookshop.stock.sharding.enabled:false}") boolean enabled,
+                               @Value("${bookshop.stock.sharding.shards:8}") int shards,
+                               @Value("${bookshop.stock.sharding.books:}") Set<Long> configuredBooks) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.shards = shards;
+        this.configuredBooks = enabled ? configuredBooks : Set.of();
+    }
+
+    // before the recommendation index is built, so it's built from the total stock
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileShards() {
+        List<Long> currentlySharded = jdbcTemplate.queryForList("select distinct book_id from book_stock_shard", Long.class);
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Long bookId : currentlySharded) {
+                if (!configuredBooks.contains(bookId) || shardCount(bookId) != shards) {
+                    fold(bookId);
+                }
+            }
+            for (Long bookId : configuredBooks) {
+                if (shardCount(bookId) != shards) {
+                    split(bookId);
+                }
+            }
+        });
+        configuredBooks.forEach(bookId -> shardedBooks.put(bookId, shards));
+        if (!shardedBooks.isEmpty()) {
+            log.info("Stock of books {} is split over {} shards", shardedBooks.keySet(), shards);
+        }
+    }
+
+    public boolean isSharded(Long bookId) {
+        return shardedBooks.containsKey(bookId);
+    }
+
+    // stock of the book row plus the other shards, only sharded books cost a query
+    public int totalStock(Book book) {
+        if (!isSharded(book.getId())) {
+            return book.getStock();
+        }
+        return book.getStock() + jdbcTemplate.queryForObject(SUM_SHARD_STOCKS_SQL, Integer.class, book.getId());
+    }
+
+    /**
+     * Takes the quantity from a random shard, then from the next ones if it's short.
+     * Only when no single shard has enough, all shards are locked and the quantity is collected across them.
+     * Returns false, with nothing taken, if the total stock is short. Must run in a transaction.
+     */
+    public boolean tryReserve(Long bookId, int quantity) {
+        int shardCount = shardedBooks.getOrDefault(bookId, 1);
+        int first = ThreadLocalRandom.current().nextInt(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            if (decrement(bookId, (first + i) % shardCount, quantity)) {
+                return true;
+            }
+        }
+        return shardCount > 1 && reserveAcrossShards(bookId, quantity);
+    }
+
+    // released stock goes to a random shard, an increment can't fail
+    public void release(Long bookId, int quantity) {
+        int shard = ThreadLocalRandom.current().nextInt(shardedBooks.getOrDefault(bookId, 1));
+        if (shard == 0) {
+            jdbcTemplate.update(INCREMENT_BOOK_SQL, quantity, bookId);
+        } else {
+            jdbcTemplate.update(INCREMENT_SHARD_SQL, quantity, bookId, shard);
+        }
+    }
+
+    private boolean decrement(Long bookId, int shard, int quantity) {
+        return shard == 0
+                ? jdbcTemplate.update(DECREMENT_BOOK_SQL, quantity, bookId, quantity) == 1
+                : jdbcTemplate.update(DECREMENT_SHARD_SQL, quantity, bookId, shard, quantity) == 1;
+    }
+
+    // rows are locked in shard order, book row first, like fold and split do
+    private boolean reserveAcrossShards(Long bookId, int quantity) {
+        List<Integer> stocks = jdbcTemplate.queryForList(LOCK_BOOK_STOCK_SQL, Integer.class, bookId);
+        if (stocks.isEmpty()) {
+            return false;
+        }
+        List<Integer> shardStocks = jdbcTemplate.queryForList(LOCK_SHARD_STOCKS_SQL, Integer.class, bookId);
+        int total = stocks.get(0) + shardStocks.stream().mapToInt(Integer::intValue).sum();
+        if (total < quantity) {
+            return false;
+        }
+        int remaining = quantity - Math.min(quantity, stocks.get(0));
+        decrement(bookId, 0, quantity - remaining);
+        for (int shard = 1; shard <= shardStocks.size() && remaining > 0; shard++) {
+            int taken = Math.min(remaining, shardStocks.get(shard - 1));
+            decrement(bookId, shard, taken);
+            remaining -= taken;
+        }
+        return true;
+    }
+
+    private int shardCount(Long bookId) {
+        return jdbcTemplate.queryForObject("select count(*) from book_stock_shard where book_id = ?", Integer.class, bookId) + 1;
+    }
+
+    // the shard rows are locked too and their locked values summed, a concurrent reservation or release on a shard
+    // would otherwise change it between the sum and the delete and its stock would be lost or counted twice
+    private void fold(Long bookId) {
+        jdbcTemplate.queryForList(LOCK_BOOK_STOCK_SQL, Integer.class, bookId);
+        List<Integer> shardStocks = jdbcTemplate.queryForList(LOCK_SHARD_STOCKS_SQL, Integer.class, bookId);
+        jdbcTemplate.update(INCREMENT_BOOK_SQL, shardStocks.stream().mapToInt(Integer::intValue).sum(), bookId);
+        jdbcTemplate.update("delete from book_stock_shard where book_id = ?", bookId);
+    }
+
+    // an even split, the remainder stays on the book row
+    private void split(Long bookId) {
+        fold(bookId);
+        List<Integer> stocks = jdbcTemplate.queryForList(LOCK_BOOK_STOCK_SQL, Integer.class, bookId);
+        if (stocks.isEmpty()) {
+            log.warn("Book {} listed in bookshop.stock.sharding.books doesn't exist", bookId);
+            return;
+        }
+        int perShard = stocks.get(0) / shards;
+        jdbcTemplate.update("update book set stock = stock - ?, version = version + 1 where id = ?", perShard * (shards - 1), bookId);
+        for (int shard = 1; shard < shards; shard++) {
+            jdbcTemplate.update("insert into book_stock_shard (book_id, shard, stock) values (?, ?, ?)", bookId, shard, perShard);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.bookshop.service;
+
+import java.util.List;
+import com.bookshop.model.Item;
+
+/**
+ * How orders take stock from and give it back to the books.
+ * The implementation is chosen with bookshop.stock.mode, every implementation must be safe
+ * across several application instances, i.e. the database row is the only source of truth.
+ * Reservations and releases run in the transaction of the caller and are not @Transactional themselves: a failure
+ * doesn't mark that transaction rollback-only, so a GroupCommit write rolls back to its own savepoint only.
+ */
+public interface StockReservationService {
+
+    // items are expected to be normalised, i.e. one item per book. Nothing is reserved if one book is short
+    void reserve(List<Item> items);
+
+    void reserve(Long bookId, int quantity);
+
+    void release(Long bookId, int quantity);
+
+    // blocks until the stock changes committed on this thread are in the book rows. Called once the transaction
+    // has completed and released its connection, only the ledger in SYNC durability writes them after the commit
+    default void awaitCommittedChanges() {
+    }
+}
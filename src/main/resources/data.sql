@@ -3,46 +3,51 @@ VALUES (1, 'admin'),
        (2, 'customer'),
        (3, 'manager');
 
-INSERT INTO users (name, password)
-VALUES ('user1', 'password1'),
-       ('user2', 'password2');
+INSERT INTO users (id, name, password)
+VALUES (1, 'user1', 'password1'),
+       (2, 'user2', 'password2');
 
-INSERT INTO book (author, stock, title, genre)
+INSERT INTO book (id, author, stock, title, genre)
 VALUES
 -- Nonfiction (Popular Java & Spring Boot Books)
-('Joshua Bloch', 100, 'Effective Java', 'Nonfiction'),
-('Herbert Schildt', 100, 'Java: The Complete Reference', 'Nonfiction'),
-('Kathy Sierra & Bert Bates', 100, 'Head First Java', 'Nonfiction'),
-('Robert C. Martin', 100, 'Clean Code', 'Nonfiction'),
-('Craig Walls', 100, 'Spring in Action', 'Nonfiction'),
-('Ranga Rao Karanam', 100, 'Mastering Spring Boot 3.0', 'Nonfiction'),
-('Mark Heckler', 100, 'Spring Boot: Up and Running', 'Nonfiction'),
-('Juergen Hoeller', 100, 'Spring Framework in Action', 'Nonfiction'),
-('Venkat Subramaniam', 100, 'Functional Programming in Java', 'Nonfiction'),
-('Brian Goetz', 100, 'Java Concurrency in Practice', 'Nonfiction'),
+(1, 'Joshua Bloch', 100, 'Effective Java', 'Nonfiction'),
+(2, 'Herbert Schildt', 100, 'Java: The Complete Reference', 'Nonfiction'),
+(3, 'Kathy Sierra & Bert Bates', 100, 'Head First Java', 'Nonfiction'),
+(4, 'Robert C. Martin', 100, 'Clean Code', 'Nonfiction'),
+(5, 'Craig Walls', 100, 'Spring in Action', 'Nonfiction'),
+(6, 'Ranga Rao Karanam', 100, 'Mastering Spring Boot 3.0', 'Nonfiction'),
+(7, 'Mark Heckler', 100, 'Spring Boot: Up and Running', 'Nonfiction'),
+(8, 'Juergen Hoeller', 100, 'Spring Framework in Action', 'Nonfiction'),
+(9, 'Venkat Subramaniam', 100, 'Functional Programming in Java', 'Nonfiction'),
+(10, 'Brian Goetz', 100, 'Java Concurrency in Practice', 'Nonfiction'),
 
 -- Fiction (Top 10 Popular Fiction Books)
-('J.K. Rowling', 100, 'Harry Potter ', 'Fiction'),
-('George Orwell', 100, '1984', 'Fiction'),
-('J.R.R. Tolkien', 100, 'The Lord of the Rings', 'Fiction'),
-('Harper Lee', 100, 'To Kill a Mockingbird', 'Fiction'),
-('F. Scott Fitzgerald', 100, 'The Great Gatsby', 'Fiction'),
-('Jane Austen', 100, 'Pride and Prejudice', 'Fiction'),
-('Leo Tolstoy', 100, 'War and Peace', 'Fiction'),
-('Markus Zusak', 100, 'The Book Thief', 'Fiction'),
-('Dan Brown', 100, 'The Da Vinci Code', 'Fiction'),
-('Gabriel García Márquez', 100, 'One Hundred Years of Solitude', 'Fiction'),
+(11, 'J.K. Rowling', 100, 'Harry Potter ', 'Fiction'),
+(12, 'George Orwell', 100, '1984', 'Fiction'),
+(13, 'J.R.R. Tolkien', 100, 'The Lord of the Rings', 'Fiction'),
+(14, 'Harper Lee', 100, 'To Kill a Mockingbird', 'Fiction'),
+(15, 'F. Scott Fitzgerald', 100, 'The Great Gatsby', 'Fiction'),
+(16, 'Jane Austen', 100, 'Pride and Prejudice', 'Fiction'),
+(17, 'Leo Tolstoy', 100, 'War and Peace', 'Fiction'),
+(18, 'Markus Zusak', 100, 'The Book Thief', 'Fiction'),
+(19, 'Dan Brown', 100, 'The Da Vinci Code', 'Fiction'),
+(20, 'Gabriel García Márquez', 100, 'One Hundred Years of Solitude', 'Fiction'),
 
 -- Fairy Tale (Top 10 Classic Fairy Tales)
-('Brothers Grimm', 100, 'Cinderella', 'Fairy Tale'),
-('Brothers Grimm', 100, 'Snow White and the Seven Dwarfs', 'Fairy Tale'),
-('Hans Christian Andersen', 100, 'The Little Mermaid', 'Fairy Tale'),
-('Hans Christian Andersen', 100, 'The Ugly Duckling', 'Fairy Tale'),
-('Charles Perrault', 100, 'Sleeping Beauty', 'Fairy Tale'),
-('Hans Christian Andersen', 100, 'The Snow Queen', 'Fairy Tale'),
-('Aesop', 100, 'The Tortoise and the Hare', 'Fairy Tale'),
-('Hans Christian Andersen', 100, 'Thumbelina', 'Fairy Tale'),
-('Brothers Grimm', 100, 'Hansel and Gretel', 'Fairy Tale'),
-('Brothers Grimm', 100, 'Rumpelstiltskin', 'Fairy Tale');
+(21, 'Brothers Grimm', 100, 'Cinderella', 'Fairy Tale'),
+(22, 'Brothers Grimm', 100, 'Snow White and the Seven Dwarfs', 'Fairy Tale'),
+(23, 'Hans Christian Andersen', 100, 'The Little Mermaid', 'Fairy Tale'),
+(24, 'Hans Christian Andersen', 100, 'The Ugly Duckling', 'Fairy Tale'),
+(25, 'Charles Perrault', 100, 'Sleeping Beauty', 'Fairy Tale'),
+(26, 'Hans Christian Andersen', 100, 'The Snow Queen', 'Fairy Tale'),
+(27, 'Aesop', 100, 'The Tortoise and the Hare', 'Fairy Tale'),
+(28, 'Hans Christian Andersen', 100, 'Thumbelina', 'Fairy Tale'),
+(29, 'Brothers Grimm', 100, 'Hansel and Gretel', 'Fairy Tale'),
+(30, 'Brothers Grimm', 100, 'Rumpelstiltskin', 'Fairy Tale');
+
+-- the ids are explicit so the sample requests can refer to them. With the pooled optimizer the value returned by
+-- the sequence is the upper bound of the next block, so setting it to the max id makes generated ids start after it
+SELECT setval('users_seq', (SELECT MAX(id) FROM users));
+SELECT setval('book_seq', (SELECT MAX(id) FROM book));
 
 -----------------------------
@@ -0,0 +1,21 @@
+-- Moves the ids of an existing database from IDENTITY columns to the pooled sequences used by the entities.
+-- Run it once, before starting the application with this version: ddl-auto=update would create
+-- the sequences starting from 1, and the generated ids would collide with the existing rows.
+
+CREATE SEQUENCE IF NOT EXISTS book_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS users_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS orders_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS items_seq START WITH 1 INCREMENT BY 50;
+
+-- the pooled optimizer treats the value returned by the sequence as the upper bound of the next block,
+-- so setting it to the current max id makes the next block start right after the existing rows
+SELECT setval('book_seq', (SELECT COALESCE(MAX(id), 1) FROM book));
+SELECT setval('users_seq', (SELECT COALESCE(MAX(id), 1) FROM users));
+SELECT setval('orders_seq', (SELECT COALESCE(MAX(id), 1) FROM orders));
+SELECT setval('items_seq', (SELECT COALESCE(MAX(id), 1) FROM items));
+
+-- inserts relying on the column default would bypass the sequences
+ALTER TABLE book ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE users ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE orders ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE items ALTER COLUMN id DROP IDENTITY IF EXISTS;
@@ -0,0 +1,125 @@
+package com.bookshop.concurrency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+class InventoryCounterTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 50_000;
+    private static final long INITIAL = 100;
+
+    static Stream<Arguments> counters() {
+        return Stream.of(
+                Arguments.of("InventoryCounter", (LongFunction<InventoryCounter>) InventoryCounter::new),
+                Arguments.of("StripedInventoryCounter", (LongFunction<InventoryCounter>) StripedInventoryCounter::new));
+    }
+
+    // a few units of stock shared by many threads, most withdrawals run short and race with the deposits
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("counters")
+    void neverNegativeAndBalancedUnderContention(String name, LongFunction<InventoryCounter> counterFactory) throws Exception {
+        InventoryCounter counter = counterFactory.apply(INITIAL);
+        AtomicLong deposited = new AtomicLong();
+        AtomicLong withdrawn = new AtomicLong();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean negativeSeen = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            Future<?> observer = executor.submit(() -> {
+                while (running.get()) {
+                    if (counter.get() < 0) {
+                        negativeSeen.set(true);
+                    }
+                    Thread.yield();
+                }
+            });
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int operation = 0; operation < OPERATIONS_PER_THREAD; operation++) {
+                        long quantity = random.nextLong(1, 10);
+                        int kind = random.nextInt(10);
+                        if (kind < 4) {
+                            counter.deposit(quantity);
+                            deposited.addAndGet(quantity);
+                        } else if (kind < 9 ? counter.tryWithdraw(quantity) : counter.withdraw(quantity, 50, TimeUnit.MICROSECONDS)) {
+                            withdrawn.addAndGet(quantity);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS);
+            }
+            running.set(false);
+            observer.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(negativeSeen).isFalse();
+        assertThat(withdrawn.get()).isPositive();
+        assertThat(counter.get()).isEqualTo(INITIAL + deposited.get() - withdrawn.get());
+        // everything left can still be withdrawn, and not a unit more
+        assertThat(counter.tryWithdraw(counter.get())).isTrue();
+        assertThat(counter.tryWithdraw(1)).isFalse();
+        assertThat(counter.get()).isZero();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("counters")
+    void waitingWithdrawalIsServedByLaterDeposits(String name, LongFunction<InventoryCounter> counterFactory) throws Exception {
+        InventoryCounter counter = counterFactory.apply(0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> withdrawal = executor.submit(() -> counter.withdraw(5, 10, TimeUnit.SECONDS));
+            for (int i = 0; i < 5; i++) {
+                counter.deposit(1);
+            }
+            assertThat(withdrawal.get(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(counter.get()).isZero();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void timedWithdrawalGivesUpWithoutTakingAnything() throws InterruptedException {
+        InventoryCounter counter = new InventoryCounter(3);
+
+        assertThat(counter.withdraw(4, 10, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(counter.get()).isEqualTo(3);
+    }
+
+    @Test
+    void negativeQuantitiesAreRejected() {
+        InventoryCounter counter = new InventoryCounter(3);
+
+        assertThatThrownBy(() -> counter.tryWithdraw(-1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> counter.deposit(-1)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(counter.get()).isEqualTo(3);
+    }
+}
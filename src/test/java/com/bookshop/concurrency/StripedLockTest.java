@@ -0,0 +1,120 @@
+package com.bookshop.concurrency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class StripedLockTest {
+
+    private static final int THREADS = 8;
+    private static final int BASKETS_PER_THREAD = 20_000;
+    // more keys than stripes, so keys share stripes and baskets overlap
+    private static final int KEYS = 64;
+    private static final int STRIPES = 16;
+
+    // plain counters guarded by the stripes only: a basket updated without holding all its stripes loses increments
+    private final long[] counts = new long[KEYS];
+    private final int[] holders = new int[KEYS];
+    private final AtomicBoolean overlapSeen = new AtomicBoolean();
+
+    @Test
+    void overlappingBasketsAreMutuallyExclusiveAndNeverDeadlock() throws Exception {
+        StripedLock lock = new StripedLock(STRIPES);
+        AtomicLong[] expected = new AtomicLong[KEYS];
+        for (int key = 0; key < KEYS; key++) {
+            expected[key] = new AtomicLong();
+        }
+        AtomicLong timedOut = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int basket = 0; basket < BASKETS_PER_THREAD; basket++) {
+                        // unsorted and with repeated keys, as baskets arrive
+                        List<Long> keys = new ArrayList<>();
+                        for (int k = random.nextInt(1, 6); k > 0; k--) {
+                            keys.add((long) random.nextInt(KEYS));
+                        }
+                        if (random.nextBoolean()) {
+                            try (StripedLock.Locked locked = lock.lockAll(keys)) {
+                                update(keys);
+                            }
+                        } else {
+                            Optional<StripedLock.Locked> locked = lock.tryLockAll(keys, 1, TimeUnit.MILLISECONDS, (key, nanos) -> { });
+                            if (locked.isEmpty()) {
+                                timedOut.incrementAndGet();
+                                continue;
+                            }
+                            try (StripedLock.Locked held = locked.get()) {
+                                update(keys);
+                            }
+                        }
+                        keys.forEach(key -> expected[key.intValue()].incrementAndGet());
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            // a deadlock shows up as a timeout here
+            for (Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(overlapSeen).isFalse();
+        for (int key = 0; key < KEYS; key++) {
+            assertThat(counts[key]).as("key %d", key).isEqualTo(expected[key].get());
+        }
+        assertThat(lock.lockedCount()).isZero();
+    }
+
+    @Test
+    void timedOutBasketHoldsNoStripe() throws Exception {
+        StripedLock lock = new StripedLock(STRIPES);
+        List<Long> basket = List.of(1L, 2L, 3L);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (StripedLock.Locked held = lock.lockAll(List.of(3L))) {
+            // the first stripes are taken before the wait for the held one gives up
+            Future<Optional<StripedLock.Locked>> attempt = executor.submit(() ->
+                    lock.tryLockAll(basket, 50, TimeUnit.MILLISECONDS, (key, nanos) -> { }));
+
+            assertThat(attempt.get(10, TimeUnit.SECONDS)).isEmpty();
+            assertThat(lock.lockedCount()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(lock.lockedCount()).isZero();
+    }
+
+    private void update(List<Long> keys) {
+        for (long key : keys.stream().distinct().toList()) {
+            if (holders[(int) key]++ != 0) {
+                overlapSeen.set(true);
+            }
+        }
+        Thread.yield();
+        for (long key : keys) {
+            counts[(int) key] = counts[(int) key] + 1;
+        }
+        for (long key : keys.stream().distinct().toList()) {
+            holders[(int) key]--;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.bookshop.concurrency.threadpool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import com.bookshop.concurrency.threadpool.MyThreadPool.RejectionPolicy;
+
+class MyThreadPoolTest {
+
+    private static final int WORKERS = 4;
+    // small, so the producers keep running into a full pool
+    private static final int MAX_QUEUED = 16;
+    private static final int PRODUCERS = 8;
+    private static final int TASKS_PER_PRODUCER = 50_000;
+    private static final int FAILING_EVERY = 10_000;
+
+    // every submitted task is run exactly once, on a worker or on the caller, or rejected; never lost, never twice
+    @ParameterizedTest
+    @EnumSource(RejectionPolicy.class)
+    void everySubmittedTaskIsRunOrRejected(RejectionPolicy rejectionPolicy) throws Exception {
+        AtomicLong ranOnWorker = new AtomicLong();
+        AtomicLong ranOnCaller = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicBoolean overfilled = new AtomicBoolean();
+        MyThreadPool pool = new MyThreadPool(WORKERS, MAX_QUEUED, rejectionPolicy, (thread, e) -> failed.incrementAndGet());
+        ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+        try {
+            List<Future<?>> submitted = new ArrayList<>();
+            for (int p = 0; p < PRODUCERS; p++) {
+                submitted.add(producers.submit(() -> {
+                    Thread producer = Thread.currentThread();
+                    for (int i = 1; i <= TASKS_PER_PRODUCER; i++) {
+                        boolean failing = i % FAILING_EVERY == 0;
+                        try {
+                            pool.execute(() -> {
+                                (Thread.currentThread() == producer ? ranOnCaller : ranOnWorker).incrementAndGet();
+                                if (pool.queuedCount() > MAX_QUEUED) {
+                                    overfilled.set(true);
+                                }
+                                if (failing) {
+                                    throw new IllegalStateException("Task failed on purpose");
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            rejected.incrementAndGet();
+                        } catch (IllegalStateException e) {
+                            // a failing task run by the caller throws to the caller
+                            failed.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> producer : submitted) {
+                producer.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            producers.shutdownNow();
+        }
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        long total = (long) PRODUCERS * TASKS_PER_PRODUCER;
+        assertThat(ranOnWorker.get() + ranOnCaller.get() + rejected.get()).isEqualTo(total);
+        assertThat(overfilled).isFalse();
+        switch (rejectionPolicy) {
+            case BLOCK -> {
+                assertThat(rejected).hasValue(0);
+                assertThat(ranOnCaller).hasValue(0);
+                assertThat(failed).hasValue(total / FAILING_EVERY);
+            }
+            case CALLER_RUNS -> {
+                assertThat(rejected).hasValue(0);
+                assertThat(failed).hasValue(total / FAILING_EVERY);
+            }
+            case FAIL -> {
+                assertThat(ranOnCaller).hasValue(0);
+                assertThat(failed.get()).isLessThanOrEqualTo(total / FAILING_EVERY);
+            }
+        }
+    }
+
+    // workers submitting subtasks to a full pool run them themselves, whatever the policy, so the pool can't deadlock
+    @ParameterizedTest
+    @EnumSource(RejectionPolicy.class)
+    void tasksSubmittingToAFullPoolComplete(RejectionPolicy rejectionPolicy) throws Exception {
+        int parents = 100;
+        int children = 100;
+        MyThreadPool pool = new MyThreadPool(WORKERS, MAX_QUEUED, rejectionPolicy, (thread, e) -> { });
+        CountDownLatch done = new CountDownLatch(parents * children);
+        List<Future<?>> submitted = new ArrayList<>();
+        for (int i = 0; i < parents; i++) {
+            Runnable parent = () -> {
+                for (int j = 0; j < children; j++) {
+                    pool.execute(done::countDown);
+                }
+            };
+            submitted.add(submitWhenRoom(pool, parent));
+        }
+
+        assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+        for (Future<?> parent : submitted) {
+            parent.get(10, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void shutdownNowReturnsEveryTaskNotStarted() throws Exception {
+        MyThreadPool pool = new MyThreadPool(2, 100);
+        AtomicLong started = new AtomicLong();
+        CountDownLatch release = new CountDownLatch(1);
+        int tasks = 50;
+        for (int i = 0; i < tasks; i++) {
+            pool.execute(() -> {
+                started.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        List<Runnable> notStarted = pool.shutdownNow();
+
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(started.get() + notStarted.size()).isEqualTo(tasks);
+        assertThat(pool.queuedCount()).isZero();
+    }
+
+    private static Future<?> submitWhenRoom(MyThreadPool pool, Runnable task) {
+        while (true) {
+            try {
+                return pool.submit(task);
+            } catch (RejectedExecutionException e) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+}
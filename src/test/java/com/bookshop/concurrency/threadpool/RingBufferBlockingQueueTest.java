@@ -0,0 +1,130 @@
+package com.bookshop.concurrency.threadpool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import com.bookshop.concurrency.threadpool.RingBufferBlockingQueue.WaitStrategy;
+
+class RingBufferBlockingQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 3;
+    // a few slots for many threads, producers and consumers keep lapping each other
+    private static final int CAPACITY = 8;
+    private static final int POISON = -1;
+
+    // every element is taken exactly once, whichever mix of blocking, timed and non-blocking calls moved it
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.class)
+    void everyElementIsConsumedExactlyOnce(WaitStrategy waitStrategy) throws Exception {
+        // spinning threads share the cores with the ones they wait for, fewer elements keep the run short
+        int perProducer = waitStrategy == WaitStrategy.SPIN ? 1_000 : 100_000;
+        int elements = PRODUCERS * perProducer;
+        RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<>(CAPACITY, waitStrategy);
+        AtomicIntegerArray consumed = new AtomicIntegerArray(elements);
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS + CONSUMERS);
+        try {
+            List<Future<?>> producers = new ArrayList<>();
+            for (int p = 0; p < PRODUCERS; p++) {
+                int first = p * perProducer;
+                producers.add(executor.submit(() -> {
+                    for (int element = first; element < first + perProducer; element++) {
+                        produce(queue, element);
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> consumers = new ArrayList<>();
+            for (int c = 0; c < CONSUMERS; c++) {
+                consumers.add(executor.submit(() -> {
+                    while (true) {
+                        Integer element = consume(queue);
+                        if (element == null) {
+                            continue;
+                        }
+                        if (element == POISON) {
+                            return null;
+                        }
+                        consumed.incrementAndGet(element);
+                    }
+                }));
+            }
+            for (Future<?> producer : producers) {
+                producer.get(60, TimeUnit.SECONDS);
+            }
+            for (int c = 0; c < CONSUMERS; c++) {
+                queue.put(POISON);
+            }
+            for (Future<?> consumer : consumers) {
+                consumer.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int element = 0; element < elements; element++) {
+            assertThat(consumed.get(element)).as("element %d", element).isEqualTo(1);
+        }
+        assertThat(queue).isEmpty();
+        assertThat(queue.remainingCapacity()).isEqualTo(CAPACITY);
+    }
+
+    @Test
+    void fullQueueRefusesAndEmptyQueueTimesOut() throws InterruptedException {
+        // rounded up to a power of two
+        RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<>(3, WaitStrategy.PARK);
+        for (int i = 0; i < 4; i++) {
+            assertThat(queue.offer(i)).isTrue();
+        }
+
+        assertThat(queue.offer(4)).isFalse();
+        assertThat(queue.offer(4, 10, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(queue).containsExactly(0, 1, 2, 3);
+
+        List<Integer> drained = new ArrayList<>();
+        assertThat(queue.drainTo(drained)).isEqualTo(4);
+        assertThat(drained).containsExactly(0, 1, 2, 3);
+        assertThat(queue.poll(10, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    private static void produce(RingBufferBlockingQueue<Integer> queue, int element) throws InterruptedException {
+        switch (ThreadLocalRandom.current().nextInt(3)) {
+            case 0 -> queue.put(element);
+            case 1 -> {
+                while (!queue.offer(element, 1, TimeUnit.MILLISECONDS)) {
+                    Thread.onSpinWait();
+                }
+            }
+            default -> {
+                while (!queue.offer(element)) {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    // null when a timed or non-blocking poll found nothing
+    private static Integer consume(RingBufferBlockingQueue<Integer> queue) throws InterruptedException {
+        return switch (ThreadLocalRandom.current().nextInt(3)) {
+            case 0 -> queue.take();
+            case 1 -> queue.poll(1, TimeUnit.MILLISECONDS);
+            default -> {
+                Integer element = queue.poll();
+                if (element == null) {
+                    Thread.yield();
+                }
+                yield element;
+            }
+        };
+    }
+}
@@ -0,0 +1,257 @@
+package com.bookshop.ledger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.bookshop.config.TransactionConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+@DataJpaTest(showSql = false)
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(TransactionConfig.class)
+// the ledger commits and flushes in its own transactions
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockLedgerTest {
+
+    private static final int BOOKS = 8;
+    private static final int INITIAL_STOCK = 100;
+    private static final int FLUSH_OPERATIONS = 4;
+
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final AtomicLong itemIds = new AtomicLong();
+    // makes the flusher die after writing its batch, before the flush transaction commits
+    private final AtomicBoolean killFlusher = new AtomicBoolean();
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("delete from items");
+        jdbcTemplate.update("delete from orders");
+        jdbcTemplate.update("delete from users");
+        jdbcTemplate.update("delete from book");
+        jdbcTemplate.update("delete from stock_ledger_baseline");
+        jdbcTemplate.update("delete from stock_ledger_state");
+        for (long bookId = 1; bookId <= BOOKS; bookId++) {
+            jdbcTemplate.update("insert into book (id, title, stock, version) values (?, ?, ?, 0)", bookId, "book " + bookId, INITIAL_STOCK);
+        }
+        jdbcTemplate.update("insert into users (id, name) values (1, 'user')");
+        jdbcTemplate.update("insert into orders (id, user_id) values (1, 1)");
+    }
+
+    @Test
+    void recoveryAfterFlusherKilledMidBatchRestoresSupplyMinusOrdered() {
+        StockLedger ledger = newLedger(killableJdbcTemplate());
+        ledger.start();
+
+        // the first flush goes through
+        for (int i = 0; i < FLUSH_OPERATIONS; i++) {
+            order(ledger, 1L + i % BOOKS, 2);
+        }
+        await().atMost(Duration.ofSeconds(5)).until(() -> stock(1L) < INITIAL_STOCK);
+
+        // the next one dies before committing, its changes and the ones after it never reach book.stock
+        killFlusher.set(true);
+        for (int i = 0; i < 2 * FLUSH_OPERATIONS + 1; i++) {
+            order(ledger, 1L + i % BOOKS, 3);
+        }
+        // an order rolled back after its withdrawal is neither flushed nor recovered
+        transactionTemplate.executeWithoutResult(status -> {
+            ledger.tryWithdraw(2L, 5);
+            status.setRollbackOnly();
+        });
+        assertThat(ordered(1L)).isGreaterThan(INITIAL_STOCK - stock(1L));
+
+        // the crashed ledger is never stopped, the next start finds the unclean shutdown
+        StockLedger restarted = newLedger(jdbcTemplate);
+        restarted.start();
+        try {
+            for (long bookId = 1; bookId <= BOOKS; bookId++) {
+                assertThat(stock(bookId)).isEqualTo(INITIAL_STOCK - ordered(bookId));
+                assertThat(supply(bookId)).isEqualTo(INITIAL_STOCK);
+            }
+        } finally {
+            killFlusher.set(false);
+        }
+    }
+
+    @Test
+    void cleanStopFlushesEverything() throws InterruptedException {
+        StockLedger ledger = newLedger(jdbcTemplate);
+        ledger.start();
+        order(ledger, 1L, 7);
+        order(ledger, 2L, 3);
+        ledger.stop();
+
+        assertThat(stock(1L)).isEqualTo(INITIAL_STOCK - 7);
+        assertThat(stock(2L)).isEqualTo(INITIAL_STOCK - 3);
+        assertThat(jdbcTemplate.queryForObject("select clean_shutdown from stock_ledger_state where id = 1", Boolean.class)).isTrue();
+    }
+
+    @Test
+    void syncOrderOfManyBooksWaitsForOneFlush() throws InterruptedException {
+        Duration flushInterval = Duration.ofMillis(300);
+        StockLedger ledger = new StockLedger(jdbcTemplate, transactionTemplate, event -> { }, LedgerDurability.SYNC,
+                flushInterval, Integer.MAX_VALUE, Duration.ofSeconds(10), false);
+        ledger.start();
+        try {
+            long start = System.nanoTime();
+            transactionTemplate.executeWithoutResult(status -> {
+                for (long bookId = 1; bookId <= BOOKS; bookId++) {
+                    assertThat(ledger.tryWithdraw(bookId, 1)).isTrue();
+                }
+            });
+            ledger.awaitFlushed();
+            Duration waited = Duration.ofNanos(System.nanoTime() - start);
+
+            // all the books are flushed once the wait returns, with one flush instead of one per book
+            for (long bookId = 1; bookId <= BOOKS; bookId++) {
+                assertThat(stock(bookId)).isEqualTo(INITIAL_STOCK - 1);
+            }
+            assertThat(waited).isLessThan(flushInterval.multipliedBy(BOOKS / 2));
+        } finally {
+            ledger.stop();
+        }
+    }
+
+    // as many SYNC orders as pooled connections: they must not hold them while they wait, the flusher needs one
+    @Test
+    void concurrentSyncOrdersLeaveAConnectionToTheFlusher() throws Exception {
+        int orders = dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+        Duration syncTimeout = Duration.ofSeconds(5);
+        StockLedger ledger = new StockLedger(jdbcTemplate, transactionTemplate, event -> { }, LedgerDurability.SYNC,
+                Duration.ofMillis(20), Integer.MAX_VALUE, syncTimeout, false);
+        ledger.start();
+        // every order holds its connection at the same time before it commits
+        CyclicBarrier allInTransaction = new CyclicBarrier(orders);
+        ExecutorService executor = Executors.newFixedThreadPool(orders);
+        try {
+            List<Future<Duration>> waits = new ArrayList<>();
+            for (int i = 0; i < orders; i++) {
+                long bookId = 1 + i % BOOKS;
+                waits.add(executor.submit(() -> {
+                    transactionTemplate.executeWithoutResult(status -> {
+                        assertThat(ledger.tryWithdraw(bookId, 1)).isTrue();
+                        awaitQuietly(allInTransaction);
+                    });
+                    long committed = System.nanoTime();
+                    ledger.awaitFlushed();
+                    Duration waited = Duration.ofNanos(System.nanoTime() - committed);
+                    // flushed, not given up after sync-timeout
+                    assertThat(stock(bookId)).isLessThan(INITIAL_STOCK);
+                    return waited;
+                }));
+            }
+            for (Future<Duration> waited : waits) {
+                assertThat(waited.get(30, TimeUnit.SECONDS)).isLessThan(syncTimeout.dividedBy(2));
+            }
+            for (long bookId = 1; bookId <= BOOKS; bookId++) {
+                assertThat(stock(bookId)).isEqualTo(INITIAL_STOCK - (orders / BOOKS + (bookId <= orders % BOOKS ? 1 : 0)));
+            }
+        } finally {
+            executor.shutdownNow();
+            ledger.stop();
+        }
+    }
+
+    @Test
+    void withdrawalRolledBackToSavepointIsUndone() throws InterruptedException {
+        StockLedger ledger = newLedger(jdbcTemplate);
+        ledger.start();
+        TransactionTemplate nested = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        nested.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            assertThat(ledger.tryWithdraw(1L, 2)).isTrue();
+            assertThatThrownBy(() -> nested.executeWithoutResult(savepoint -> {
+                assertThat(ledger.tryWithdraw(1L, INITIAL_STOCK - 2)).isTrue();
+                throw new IllegalStateException("Order failed");
+            })).isInstanceOf(IllegalStateException.class);
+            // the stock taken by the rolled back order is available again within the same transaction
+            assertThat(ledger.tryWithdraw(1L, 3)).isTrue();
+        });
+        ledger.stop();
+
+        assertThat(stock(1L)).isEqualTo(INITIAL_STOCK - 5);
+    }
+
+    private static void awaitQuietly(CyclicBarrier barrier) {
+        try {
+            barrier.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private StockLedger newLedger(JdbcTemplate ledgerJdbcTemplate) {
+        // flushed when FLUSH_OPERATIONS changes are pending, never on the interval
+        return new StockLedger(ledgerJdbcTemplate, transactionTemplate, event -> { }, LedgerDurability.GROUP_COMMIT,
+                Duration.ofHours(1), FLUSH_OPERATIONS, Duration.ofSeconds(5), false);
+    }
+
+    private JdbcTemplate killableJdbcTemplate() {
+        return new JdbcTemplate(dataSource) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                int[] updated = super.batchUpdate(sql, batchArgs);
+                if (killFlusher.get() && sql.startsWith("update book set stock = stock +")) {
+                    throw new DataAccessResourceFailureException("Flusher killed mid-batch");
+                }
+                return updated;
+            }
+        };
+    }
+
+    // the withdrawal and the ordered item commit together, as in an order transaction
+    private void order(StockLedger ledger, Long bookId, int quantity) {
+        transactionTemplate.executeWithoutResult(status -> {
+            assertThat(ledger.tryWithdraw(bookId, quantity)).isTrue();
+            jdbcTemplate.update("insert into items (id, book_id, quantity, order_id) values (?, ?, ?, 1)",
+                    itemIds.incrementAndGet(), bookId, quantity);
+        });
+    }
+
+    private int stock(Long bookId) {
+        return jdbcTemplate.queryForObject("select stock from book where id = ?", Integer.class, bookId);
+    }
+
+    private int ordered(Long bookId) {
+        return jdbcTemplate.queryForObject("select coalesce(sum(quantity), 0) from items where book_id = ?", Integer.class, bookId);
+    }
+
+    private long supply(Long bookId) {
+        return jdbcTemplate.queryForObject("select supply from stock_ledger_baseline where book_id = ?", Long.class, bookId);
+    }
+}
@@ -0,0 +1,172 @@
+package com.bookshop.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import com.bookshop.dto.ItemDto;
+import com.bookshop.dto.OrderDto;
+import com.bookshop.dto.OrderHistoryPage;
+import com.bookshop.service.OrderHistoryService;
+
+@DataJpaTest(showSql = false)
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+// the repository reads through its own connections, which must see the test data
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderHistoryRepositoryTest {
+
+    private static final long USER_ID = 1;
+    private static final int ITEMS_PER_ORDER = 3;
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 3, 1, 12, 0);
+
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final AtomicInteger statements = new AtomicInteger();
+    private OrderHistoryRepository orderHistoryRepository;
+    private OrderHistoryService orderHistoryService;
+    // newest first, as the pages return them
+    private final List<Long> expectedOrderIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        orderHistoryRepository = new OrderHistoryRepository(new JdbcTemplate(statementCounting(dataSource)));
+        orderHistoryService = new OrderHistoryService(orderHistoryRepository, 100);
+
+        jdbcTemplate.update("delete from items");
+        jdbcTemplate.update("delete from orders");
+        jdbcTemplate.update("delete from users");
+        jdbcTemplate.update("delete from book");
+        jdbcTemplate.update("insert into users (id, name) values (?, 'reader'), (2, 'other')", USER_ID);
+        for (long bookId = 1; bookId <= ITEMS_PER_ORDER; bookId++) {
+            jdbcTemplate.update("insert into book (id, title, stock, version) values (?, ?, 10, 0)", bookId, "book " + bookId);
+        }
+        // three runs of orders sharing their timestamp, so page boundaries fall between orders of the same instant
+        List<Object[]> orders = new ArrayList<>();
+        long orderId = 1;
+        for (int run = 0; run < 3; run++) {
+            for (int i = 0; i < 7; i++, orderId++) {
+                orders.add(new Object[]{orderId, USER_ID, NOW.minusHours(run)});
+            }
+        }
+        orders.add(new Object[]{orderId, 2L, NOW});
+        jdbcTemplate.batchUpdate("insert into orders (id, user_id, order_date) values (?, ?, ?)", orders);
+        long itemId = 1;
+        for (Object[] order : orders) {
+            for (long bookId = 1; bookId <= ITEMS_PER_ORDER; bookId++) {
+                jdbcTemplate.update("insert into items (id, order_id, book_id, quantity) values (?, ?, ?, 1)", itemId++, order[0], bookId);
+            }
+        }
+        orders.stream()
+                .filter(order -> order[1].equals(USER_ID))
+                .sorted(Comparator.<Object[], LocalDateTime>comparing(order -> (LocalDateTime) order[2])
+                        .thenComparing(order -> (Long) order[0]).reversed())
+                .forEach(order -> expectedOrderIds.add((Long) order[0]));
+    }
+
+    @Test
+    void firstPageIsOneStatement() {
+        statements.set(0);
+        List<OrderDto> page = orderHistoryRepository.findFirstPage(USER_ID, 5);
+
+        assertThat(statements).hasValue(1);
+        assertThat(page).extracting(OrderDto::getId).containsExactlyElementsOf(expectedOrderIds.subList(0, 5));
+        assertThat(page).allSatisfy(order -> assertThat(order.getItems())
+                .hasSize(ITEMS_PER_ORDER)
+                .extracting(ItemDto::getTitle)
+                .containsExactly("book 1", "book 2", "book 3"));
+    }
+
+    @Test
+    void nextPageIsOneStatement() {
+        OrderDto last = orderHistoryRepository.findFirstPage(USER_ID, 5).get(4);
+
+        statements.set(0);
+        List<OrderDto> page = orderHistoryRepository.findNextPage(USER_ID, last.getOrderDate(), last.getId(), 5);
+
+        assertThat(statements).hasValue(1);
+        assertThat(page).extracting(OrderDto::getId).containsExactlyElementsOf(expectedOrderIds.subList(5, 10));
+    }
+
+    @Test
+    void streamAllIsOneStatement() {
+        List<OrderDto> exported = new ArrayList<>();
+
+        statements.set(0);
+        orderHistoryService.exportUserOrders(USER_ID, exported::add);
+
+        assertThat(statements).hasValue(1);
+        assertThat(exported).extracting(OrderDto::getId).containsExactlyElementsOf(expectedOrderIds);
+        assertThat(exported).allSatisfy(order -> assertThat(order.getItems()).hasSize(ITEMS_PER_ORDER));
+    }
+
+    // the page size doesn't divide the runs of orders with the same timestamp, the cursor must cut inside them
+    @Test
+    void pagesCutInsideOrdersWithTheSameTimestampMissAndRepeatNothing() {
+        for (int pageSize : new int[]{1, 3, 4, 7, 20}) {
+            List<Long> paged = new ArrayList<>();
+            String cursor = null;
+            do {
+                OrderHistoryPage page = orderHistoryService.getUserOrders(USER_ID, cursor, pageSize);
+                page.orders().forEach(order -> paged.add(order.getId()));
+                cursor = page.nextCursor();
+            } while (cursor != null);
+
+            assertThat(paged).as("page size %d", pageSize).containsExactlyElementsOf(expectedOrderIds);
+        }
+    }
+
+    // counts the statements prepared on the connections of the data source. Equal to itself only, so Spring
+    // doesn't hand it a connection bound to the target data source
+    private DataSource statementCounting(DataSource target) {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    if (method.getName().equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    Object result = invoke(target, method, args);
+                    return result instanceof Connection connection ? statementCounting(connection) : result;
+                });
+    }
+
+    private Connection statementCounting(Connection target) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("prepare") || method.getName().equals("createStatement")) {
+                        statements.incrementAndGet();
+                    }
+                    return invoke(target, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
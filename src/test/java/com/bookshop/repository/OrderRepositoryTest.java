@@ -0,0 +1,83 @@
+package com.bookshop.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.ActiveProfiles;
+import com.bookshop.model.Item;
+import com.bookshop.model.Order;
+import com.bookshop.model.User;
+import jakarta.persistence.EntityManagerFactory;
+
+@DataJpaTest(showSql = false, properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class OrderRepositoryTest {
+
+    // twice the JDBC batch size and the sequence allocation size
+    private static final int ITEMS = 100;
+
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private TestEntityManager entityManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        user = new User();
+        user.setName("reader");
+        entityManager.persist(user);
+        // the first order fetches the first blocks of the sequences
+        saveOrder(1);
+        statistics.clear();
+    }
+
+    // with IDENTITY ids this was one insert per row, each reading its generated key back
+    @Test
+    void largeOrderIsInsertedInBatchesWithOneSequenceCallPerBlock() {
+        Order order = saveOrder(ITEMS);
+
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(1 + ITEMS);
+        // the order insert, two item batches, and the item sequence called once per block of 50 ids
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(1 + 2 + 2);
+        assertThat(order.getItems()).extracting(Item::getId).doesNotHaveDuplicates().doesNotContainNull();
+    }
+
+    @Test
+    void smallOrdersReuseTheAllocatedBlock() {
+        for (int i = 0; i < 10; i++) {
+            saveOrder(2);
+        }
+
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(10 * 3);
+        // 10 order inserts and 10 item batches, the ids all come from the blocks already allocated
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(10 + 10);
+    }
+
+    private Order saveOrder(int itemCount) {
+        Order order = Order.builder().user(user).orderDate(LocalDateTime.now()).items(new ArrayList<>()).build();
+        List<Item> items = order.getItems();
+        for (long bookId = 1; bookId <= itemCount; bookId++) {
+            items.add(new Item(null, bookId, 1, order));
+        }
+        Order saved = orderRepository.save(order);
+        entityManager.flush();
+        return saved;
+    }
+}
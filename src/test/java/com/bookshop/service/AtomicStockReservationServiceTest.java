@@ -0,0 +1,163 @@
+package com.bookshop.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.bookshop.dto.BookDto;
+import com.bookshop.exception.InsufficientStockException;
+import com.bookshop.exception.ProductNotFoundException;
+import com.bookshop.model.Item;
+import com.bookshop.repository.BookRepository;
+
+@DataJpaTest(showSql = false)
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+// every reservation commits on its own, as in the order transactions
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class AtomicStockReservationServiceTest {
+
+    private static final long HOT_BOOK = 1;
+    private static final long OTHER_BOOK = 2;
+    private static final int INITIAL_STOCK = 1_000;
+    private static final int THREADS = 8;
+    private static final int ATTEMPTS_PER_THREAD = 300;
+
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private BookCatalogService catalog;
+    private AtomicStockReservationService stockReservationService;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("delete from book");
+        jdbcTemplate.update("insert into book (id, title, stock, version) values (?, 'hot', ?, 0), (?, 'other', ?, 0)",
+                HOT_BOOK, INITIAL_STOCK, OTHER_BOOK, INITIAL_STOCK);
+        catalog = mock(BookCatalogService.class);
+        when(catalog.findById(any())).thenAnswer(invocation -> Optional.of(
+                new BookDto(invocation.getArgument(0), "title", "author", "genre")));
+        // only the two books in the table are in the catalog
+        when(catalog.findAllById(any())).thenAnswer(invocation -> invocation.<Collection<Long>>getArgument(0).stream()
+                .filter(id -> id == HOT_BOOK || id == OTHER_BOOK)
+                .map(id -> new BookDto(id, "title", "author", "genre"))
+                .toList());
+        stockReservationService = new AtomicStockReservationService(catalog, bookRepository, jdbcTemplate, event -> { });
+    }
+
+    // demand is several times the stock: the book sells out, never below zero and never more than it had
+    @Test
+    void hotBookIsNeverOversoldUnderConcurrentOrders() throws Exception {
+        AtomicInteger sold = new AtomicInteger();
+        AtomicInteger reservations = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (int attempt = 0; attempt < ATTEMPTS_PER_THREAD; attempt++) {
+                        int quantity = ThreadLocalRandom.current().nextInt(1, 4);
+                        try {
+                            reserve(attempt % 2 == 0, quantity);
+                            sold.addAndGet(quantity);
+                            reservations.incrementAndGet();
+                        } catch (InsufficientStockException e) {
+                            refused.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(120, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int remaining = stock(HOT_BOOK);
+        assertThat(remaining).isBetween(0, 2);
+        assertThat(sold.get() + remaining).isEqualTo(INITIAL_STOCK);
+        assertThat(refused.get()).isPositive();
+        // one row update per successful reservation, the refused ones left the row untouched
+        assertThat(version(HOT_BOOK)).isEqualTo(reservations.get());
+    }
+
+    // a basket short of one book reserves nothing at all
+    @Test
+    void basketShortOfOneBookReservesNothing() {
+        List<Item> basket = List.of(new Item(null, HOT_BOOK, 5, null), new Item(null, OTHER_BOOK, INITIAL_STOCK + 1, null));
+
+        assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(status -> stockReservationService.reserve(basket)))
+                .isInstanceOf(InsufficientStockException.class);
+
+        assertThat(stock(HOT_BOOK)).isEqualTo(INITIAL_STOCK);
+        assertThat(stock(OTHER_BOOK)).isEqualTo(INITIAL_STOCK);
+    }
+
+    // the whole basket is checked against the catalog with one lookup, before any stock is touched
+    @Test
+    void basketWithUnknownBookIsCheckedWithOneCatalogLookup() {
+        List<Item> basket = List.of(new Item(null, HOT_BOOK, 5, null), new Item(null, 99L, 1, null),
+                new Item(null, OTHER_BOOK, 5, null));
+
+        assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(status -> stockReservationService.reserve(basket)))
+                .isInstanceOf(ProductNotFoundException.class);
+
+        verify(catalog).findAllById(List.of(HOT_BOOK, 99L, OTHER_BOOK));
+        verify(catalog, never()).findById(any());
+        assertThat(stock(HOT_BOOK)).isEqualTo(INITIAL_STOCK);
+        assertThat(stock(OTHER_BOOK)).isEqualTo(INITIAL_STOCK);
+    }
+
+    // the single book decrement of the repository, or the batch of the basket path
+    private void reserve(boolean single, int quantity) {
+        if (single) {
+            stockReservationService.reserve(HOT_BOOK, quantity);
+        } else {
+            transactionTemplate.executeWithoutResult(status ->
+                    stockReservationService.reserve(List.of(new Item(null, HOT_BOOK, quantity, null))));
+        }
+    }
+
+    private int stock(long bookId) {
+        return jdbcTemplate.queryForObject("select stock from book where id = ?", Integer.class, bookId);
+    }
+
+    private long version(long bookId) {
+        return jdbcTemplate.queryForObject("select version from book where id = ?", Long.class, bookId);
+    }
+}
@@ -0,0 +1,177 @@
+package com.bookshop.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.bookshop.dto.BookDto;
+import com.bookshop.dto.BookOrderRequest;
+import com.bookshop.exception.InsufficientStockException;
+import com.bookshop.exception.ProductNotFoundException;
+import com.bookshop.model.Item;
+import com.bookshop.repository.BookRepository;
+import com.bookshop.repository.OrderRepository;
+import com.bookshop.repository.UserRepository;
+
+@DataJpaTest(showSql = false)
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+// the services commit in their own transactions
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class BookTransferServiceTest {
+
+    private static final long USER_ID = 1;
+    private static final int INITIAL_STOCK = 10;
+    private static final long MIDDLE_BOOK = 2;
+
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private OrderRepository orderRepository;
+
+    // sells the middle book out from under the basket, between the stock checks and the reservation batch
+    private final AtomicBoolean sellMiddleBook = new AtomicBoolean();
+    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+    private BookTransferService transferService;
+    private BookTransferServiceFuture transferServiceFuture;
+
+    static Stream<String> services() {
+        return Stream.of("BookTransferService", "BookTransferServiceFuture");
+    }
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("delete from items");
+        jdbcTemplate.update("delete from orders");
+        jdbcTemplate.update("delete from users");
+        jdbcTemplate.update("delete from book");
+        jdbcTemplate.update("insert into users (id, name) values (?, 'reader')", USER_ID);
+        for (long bookId = 1; bookId <= 3; bookId++) {
+            jdbcTemplate.update("insert into book (id, title, stock, version) values (?, ?, ?, 0)", bookId, "book " + bookId, INITIAL_STOCK);
+        }
+
+        BookCatalogService catalog = mock(BookCatalogService.class);
+        when(catalog.findById(any())).thenAnswer(invocation -> Optional.of(
+                new BookDto(invocation.getArgument(0), "book " + invocation.getArgument(0), "author", "genre")));
+        when(catalog.findAllById(any())).thenAnswer(invocation -> invocation.<Collection<Long>>getArgument(0).stream()
+                .map(id -> new BookDto(id, "book " + id, "author", "genre"))
+                .toList());
+        StockReservationService stockReservationService =
+                new AtomicStockReservationService(catalog, bookRepository, faultInjectingJdbcTemplate(), event -> { });
+        ShardedStockService shardedStockService = new ShardedStockService(jdbcTemplate, transactionTemplate, false, 8, Set.of());
+        transferService = new BookTransferService(userRepository, bookRepository, orderRepository,
+                stockReservationService, transactionTemplate, shardedStockService);
+        transferServiceFuture = new BookTransferServiceFuture(userRepository, bookRepository, orderRepository,
+                executorService, stockReservationService, transactionTemplate, shardedStockService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    // the first book of the batch is already decremented when the middle one fails
+    @ParameterizedTest
+    @MethodSource("services")
+    void itemSoldOutMidBasketLeavesNoStockDecrementedAndNoOrder(String service) {
+        sellMiddleBook.set(true);
+
+        assertThatThrownBy(() -> transfer(service).accept(basket(1L, MIDDLE_BOOK, 3L)))
+                .isInstanceOf(InsufficientStockException.class)
+                .hasMessageContaining("book " + MIDDLE_BOOK);
+
+        assertNothingWritten();
+    }
+
+    @ParameterizedTest
+    @MethodSource("services")
+    void unknownBookMidBasketLeavesNoStockDecrementedAndNoOrder(String service) {
+        assertThatThrownBy(() -> transfer(service).accept(basket(1L, 99L, 3L)))
+                .isInstanceOf(ProductNotFoundException.class);
+
+        assertNothingWritten();
+    }
+
+    @ParameterizedTest
+    @MethodSource("services")
+    void basketWithoutFaultIsPlaced(String service) {
+        transfer(service).accept(basket(1L, MIDDLE_BOOK, 3L));
+
+        assertThat(count("orders")).isEqualTo(1);
+        assertThat(count("items")).isEqualTo(3);
+        for (long bookId = 1; bookId <= 3; bookId++) {
+            assertThat(stock(bookId)).isEqualTo(INITIAL_STOCK - 2);
+        }
+    }
+
+    private Consumer<BookOrderRequest> transfer(String service) {
+        return service.equals("BookTransferService") ? transferService::transferBooks : transferServiceFuture::transferBooks;
+    }
+
+    private void assertNothingWritten() {
+        for (long bookId = 1; bookId <= 3; bookId++) {
+            assertThat(stock(bookId)).as("book %d", bookId).isEqualTo(INITIAL_STOCK);
+        }
+        assertThat(count("orders")).isZero();
+        assertThat(count("items")).isZero();
+    }
+
+    private JdbcTemplate faultInjectingJdbcTemplate() {
+        return new JdbcTemplate(dataSource) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                if (sellMiddleBook.get() && sql.equals(AtomicStockReservationService.DECREMENT_STOCK_SQL)) {
+                    update("update book set stock = 0 where id = ?", MIDDLE_BOOK);
+                }
+                return super.batchUpdate(sql, batchArgs);
+            }
+        };
+    }
+
+    private static BookOrderRequest basket(Long... bookIds) {
+        BookOrderRequest request = new BookOrderRequest();
+        request.setUserId(USER_ID);
+        request.setOrderItems(Stream.of(bookIds).map(bookId -> new Item(null, bookId, 2, null)).toList());
+        return request;
+    }
+
+    private int stock(long bookId) {
+        return jdbcTemplate.queryForObject("select stock from book where id = ?", Integer.class, bookId);
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("select count(*) from " + table, Integer.class);
+    }
+}
@@ -0,0 +1,149 @@
+package com.bookshop.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.bookshop.dto.BookOrderRequest;
+import com.bookshop.dto.OrderDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class BulkOrderImportServiceTest {
+
+    private static final int ORDERS = 100_000;
+    private static final int BATCH_SIZE = 200;
+    // a batch, plus the orders the parser has already buffered from the upload
+    private static final long MAX_READ_AHEAD = 2 * BATCH_SIZE;
+
+    // stub only, a mock would record every invocation and its order
+    private final OrderService orderService = mock(OrderService.class, withSettings().stubOnly());
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class, withSettings().stubOnly());
+    private final BulkOrderImportService importService = new BulkOrderImportService(orderService,
+            new TransactionTemplate(transactionManager), mock(StockReservationService.class, withSettings().stubOnly()),
+            new ObjectMapper(), BATCH_SIZE);
+
+    @BeforeEach
+    void setUp() {
+        // for the shared transaction of a batch and the nested one of every order
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+    }
+
+    @Test
+    void importsOneHundredThousandOrdersBatchByBatch() throws IOException {
+        SyntheticOrders orders = new SyntheticOrders(ORDERS);
+        LineCountingOutputStream results = new LineCountingOutputStream();
+        AtomicLong placed = new AtomicLong();
+        AtomicLong maxReadAhead = new AtomicLong();
+        AtomicLong batchesPlacedBeforePreviousResults = new AtomicLong();
+        when(orderService.placeOrder(any(BookOrderRequest.class))).thenAnswer(invocation -> {
+            long orderNo = placed.incrementAndGet();
+            // read from the upload but not placed yet, i.e. held in memory
+            maxReadAhead.accumulateAndGet(orders.generated() - orderNo, Math::max);
+            // first order of a batch, the results of all the orders before it must have reached the client
+            if (orderNo % BATCH_SIZE == 1 && results.lines != orderNo - 1) {
+                batchesPlacedBeforePreviousResults.incrementAndGet();
+            }
+            return OrderDto.builder().id(orderNo).build();
+        });
+
+        importService.importOrders(orders, results);
+
+        assertThat(placed).hasValue(ORDERS);
+        assertThat(results.lines).isEqualTo(ORDERS);
+        assertThat(results.lastLine()).isEqualTo("{\"index\":" + (ORDERS - 1) + ",\"orderId\":" + ORDERS + "}");
+        assertThat(maxReadAhead.get()).isLessThan(MAX_READ_AHEAD);
+        assertThat(batchesPlacedBeforePreviousResults).hasValue(0);
+    }
+
+    @Test
+    void malformedOrderStopsTheImportAfterTheOrdersBeforeIt() throws IOException {
+        when(orderService.placeOrder(any(BookOrderRequest.class))).thenReturn(OrderDto.builder().id(1L).build());
+        String orders = order(1) + "\n" + order(2) + "\n{\"userId\": }";
+        LineCountingOutputStream results = new LineCountingOutputStream();
+
+        importService.importOrders(new ByteArrayInputStream(orders.getBytes(StandardCharsets.UTF_8)), results);
+
+        assertThat(results.lines).isEqualTo(3);
+        assertThat(results.lastLine()).startsWith("{\"index\":2,\"error\":\"Malformed order");
+    }
+
+    private static String order(long orderNo) {
+        return "{\"userId\":" + (orderNo % 100 + 1) + ",\"orderItems\":[{\"bookId\":" + (orderNo % 30 + 1)
+                + ",\"quantity\":1},{\"bookId\":" + (orderNo % 7 + 1) + ",\"quantity\":2}]}";
+    }
+
+    // NDJSON generated while it is read, the payload is never held in memory as a whole
+    private static final class SyntheticOrders extends InputStream {
+        private final long orders;
+        private long next = 1;
+        private byte[] line = new byte[0];
+        private int position;
+
+        private SyntheticOrders(long orders) {
+            this.orders = orders;
+        }
+
+        // orders handed to the parser so far
+        private long generated() {
+            return next - 1;
+        }
+
+        @Override
+        public int read() {
+            if (position == line.length) {
+                if (next > orders) {
+                    return -1;
+                }
+                line = (order(next++) + "\n").getBytes(StandardCharsets.UTF_8);
+                position = 0;
+            }
+            return line[position++];
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            int read = 0;
+            int value;
+            while (read < length && (value = read()) != -1) {
+                buffer[offset + read++] = (byte) value;
+            }
+            return read == 0 && length > 0 ? -1 : read;
+        }
+    }
+
+    // counts the result lines and keeps only the last one
+    private static final class LineCountingOutputStream extends OutputStream {
+        private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream();
+        private String lastLine;
+        private long lines;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+                lastLine = currentLine.toString(StandardCharsets.UTF_8);
+                currentLine.reset();
+            } else {
+                currentLine.write(b);
+            }
+        }
+
+        private String lastLine() {
+            return lastLine;
+        }
+    }
+}
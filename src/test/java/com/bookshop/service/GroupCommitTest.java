@@ -0,0 +1,161 @@
+package com.bookshop.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.bookshop.config.TransactionConfig;
+import com.bookshop.dto.BookDto;
+import com.bookshop.exception.InsufficientStockException;
+import com.bookshop.model.Item;
+import com.bookshop.model.Order;
+import com.bookshop.repository.BookRepository;
+import com.bookshop.repository.OrderRepository;
+import com.bookshop.repository.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+
+@DataJpaTest(showSql = false)
+@ActiveProfiles("test")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(TransactionConfig.class)
+// the group commit runs its own shared transaction
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class GroupCommitTest {
+
+    private static final long USER_ID = 1;
+    private static final int INITIAL_STOCK = 10;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private UserRepository userRepository;
+
+    private StockReservationService stockReservationService;
+    // the transaction each write ran in, a group commit runs them all in the same one
+    private final Set<Object> transactions = new HashSet<>();
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("delete from items");
+        jdbcTemplate.update("delete from orders");
+        jdbcTemplate.update("delete from users");
+        jdbcTemplate.update("delete from book");
+        jdbcTemplate.update("insert into users (id, name) values (?, 'reader')", USER_ID);
+        for (long bookId = 1; bookId <= 3; bookId++) {
+            jdbcTemplate.update("insert into book (id, title, stock, version) values (?, ?, ?, 0)", bookId, "book " + bookId, INITIAL_STOCK);
+        }
+        BookCatalogService catalog = mock(BookCatalogService.class);
+        when(catalog.findById(any())).thenAnswer(invocation -> Optional.of(
+                new BookDto(invocation.getArgument(0), "book " + invocation.getArgument(0), "author", "genre")));
+        when(catalog.findAllById(any())).thenAnswer(invocation -> invocation.<Collection<Long>>getArgument(0).stream()
+                .map(id -> new BookDto(id, "book " + id, "author", "genre"))
+                .toList());
+        stockReservationService = new AtomicStockReservationService(catalog, bookRepository, jdbcTemplate, event -> { });
+    }
+
+    // the stock batch of the middle order has already decremented its first book when the second one runs short
+    @Test
+    void orderShortOfStockRollsBackAloneInsideTheSharedTransaction() {
+        List<CompletableFuture<Long>> results = GroupCommit.commit(transactionTemplate, List.of(
+                order(USER_ID, item(1L, 2)),
+                order(USER_ID, item(1L, 3), item(2L, INITIAL_STOCK + 1)),
+                order(USER_ID, item(3L, 4))));
+
+        assertThat(results.get(0)).isCompleted();
+        assertThat(results.get(1)).isCompletedExceptionally();
+        assertThatThrownBy(results.get(1)::join).hasCauseInstanceOf(InsufficientStockException.class);
+        assertThat(results.get(2)).isCompleted();
+        assertThat(transactions).hasSize(1);
+        assertThat(stock(1L)).isEqualTo(INITIAL_STOCK - 2);
+        assertThat(stock(2L)).isEqualTo(INITIAL_STOCK);
+        assertThat(stock(3L)).isEqualTo(INITIAL_STOCK - 4);
+        assertThat(orderIds()).containsExactlyInAnyOrder(results.get(0).join(), results.get(2).join());
+        assertThat(count("items")).isEqualTo(2);
+    }
+
+    // an insert failing in Hibernate fails the shared transaction, the writes are then run one by one
+    @Test
+    void failureOfTheSharedTransactionFallsBackToOneByOne() {
+        List<CompletableFuture<Long>> results = GroupCommit.commit(transactionTemplate, List.of(
+                order(USER_ID, item(1L, 2)),
+                order(99L, item(2L, 3)),
+                order(USER_ID, item(3L, 4))));
+
+        assertThat(results.get(0)).isCompleted();
+        assertThat(results.get(1)).isCompletedExceptionally();
+        assertThat(results.get(2)).isCompleted();
+        assertThat(transactions).hasSizeGreaterThan(1);
+        assertThat(stock(1L)).isEqualTo(INITIAL_STOCK - 2);
+        assertThat(stock(2L)).isEqualTo(INITIAL_STOCK);
+        assertThat(stock(3L)).isEqualTo(INITIAL_STOCK - 4);
+        assertThat(orderIds()).containsExactlyInAnyOrder(results.get(0).join(), results.get(2).join());
+    }
+
+    // reserves and saves in the current transaction, as placeOrder does
+    private Supplier<Long> order(Long userId, OrderLine... lines) {
+        return () -> {
+            transactions.add(TransactionSynchronizationManager.getResource(entityManagerFactory));
+            Order order = Order.builder()
+                    .user(userRepository.getReferenceById(userId))
+                    .orderDate(LocalDateTime.now())
+                    .items(new ArrayList<>())
+                    .build();
+            // new items on every attempt, as placeOrder builds them from the request
+            for (OrderLine line : lines) {
+                order.getItems().add(new Item(null, line.bookId(), line.quantity(), order));
+            }
+            stockReservationService.reserve(order.getItems());
+            return orderRepository.save(order).getId();
+        };
+    }
+
+    private static OrderLine item(Long bookId, int quantity) {
+        return new OrderLine(bookId, quantity);
+    }
+
+    private int stock(long bookId) {
+        return jdbcTemplate.queryForObject("select stock from book where id = ?", Integer.class, bookId);
+    }
+
+    private List<Long> orderIds() {
+        return jdbcTemplate.queryForList("select id from orders", Long.class);
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("select count(*) from " + table, Integer.class);
+    }
+
+    private record OrderLine(Long bookId, int quantity) {
+    }
+}